@@ -1,29 +1,266 @@
 package com.seanjwalker.lox;
 
 import com.seanjwalker.lox.controller.AppController;
+import com.seanjwalker.lox.controller.Benchmark;
+import com.seanjwalker.lox.controller.LoxClient;
+import com.seanjwalker.lox.controller.LoxDaemon;
+import com.seanjwalker.lox.controller.MetricsServer;
+import com.seanjwalker.lox.controller.PhaseStats;
 import com.seanjwalker.lox.view.ErrorReporter;
+import com.seanjwalker.lox.view.MetricsFormatter;
 import com.seanjwalker.lox.view.OutputPrinter;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Driver class for the Lox interpreter
  */
 public class Lox {
+    private static final String USAGE = """
+            Usage: jlox [--startup-time] [--parallel] [--dedupe] [--stream] [--ast] [--off-heap]
+                        [--compile] [--cache=<entries>] [--fuel=<nodes>] [--time-limit=<ms>]
+                        [--alloc-limit=<bytes>] [--metrics-port=<port>] [--metrics-file=<path>]
+                        [--stats] [script]
+                   jlox [options] --watch <directory>
+                   jlox [--parallel] [--dedupe] [--ast] [--compile] [--cache=<entries>] [--fuel=<nodes>]
+                        [--time-limit=<ms>] --pipe
+                   jlox --daemon <socket>
+                   jlox --client <socket> [script]
+                   jlox --train <script>...
+                   jlox [--parallel] [--dedupe] [--stream] --bench [--runs <n>] <script>...""";
+
+    private static final int BENCH_WARMUP_RUNS = 10;
+    private static final int BENCH_RUNS = 50;
+    private static final int PIPE_BUFFER = 1 << 16;
+
     /**
      * Runs the interpreter
-     * @param args a script to run or nothing to run REPL
+     * @param args a script to run or nothing to run REPL,
+     *             or a daemon/client mode followed by the socket path,
+     *             or the training mode followed by representative scripts,
+     *             or the benchmark mode followed by the scripts to measure,
+     *             or the pipe mode to run each line of standard input,
+     *             or the watch mode followed by the directory whose scripts are run as they change
      */
     public static void main(String[] args) {
         OutputPrinter outputPrinter = new OutputPrinter(System.out, System.err);
         ErrorReporter errorReporter = new ErrorReporter(outputPrinter);
         AppController appController = new AppController(outputPrinter, errorReporter);
 
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            appController.runFile(args[0]);
-        } else {
-            appController.runPrompt(System.in);
+        List<String> options = new ArrayList<>();
+        MetricsServer metricsServer = null;
+        PhaseStats stats = null;
+        while (args.length >= 1) {
+            if (args[0].startsWith("--metrics-port=")) {
+                try {
+                    metricsServer = new MetricsServer(port(args[0]));
+                    closeOnExit(metricsServer);
+                } catch (IOException e) {
+                    outputPrinter.printError(e);
+                    System.exit(74);
+                }
+            } else if (args[0].startsWith("--metrics-file=")) {
+                dumpMetricsOnExit(Path.of(args[0].substring(args[0].indexOf('=') + 1)));
+            } else if (args[0].equals("--stats")) {
+                stats = new PhaseStats();
+                appController.setPhaseListener(stats);
+                printStatsOnExit(stats, outputPrinter);
+            } else if (applyOption(appController, args[0])) {
+                options.add(args[0]);
+            } else {
+                break;
+            }
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        // The server's thread would keep the JVM running after main returns or throws
+        try {
+            if (args.length >= 1 && args[0].equals("--train")) {
+                if (args.length < 2) usage();
+                OutputPrinter silentPrinter = new OutputPrinter(Writer.nullWriter(), Writer.nullWriter());
+                AppController trainer = new AppController(silentPrinter, new ErrorReporter(silentPrinter));
+                trainer.runTraining(Arrays.asList(args).subList(1, args.length));
+                outputPrinter.printError("Trained on " + (args.length - 1) + " scripts in "
+                        + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+            } else if (args.length >= 1 && args[0].equals("--bench")) {
+                int runs = BENCH_RUNS;
+                int first = 1;
+                if (args.length >= 3 && args[1].equals("--runs")) {
+                    try {
+                        runs = Integer.parseInt(args[2]);
+                    } catch (NumberFormatException e) {
+                        usage();
+                    }
+                    first = 3;
+                }
+                if (args.length <= first || runs < 1) usage();
+
+                PhaseStats benchedStats = stats;
+                Benchmark benchmark = new Benchmark(outputPrinter, benched -> {
+                    for (String option : options) applyOption(benched, option);
+                    benched.setPhaseListener(benchedStats);
+                }, BENCH_WARMUP_RUNS, runs);
+                benchmark.runAll(Arrays.asList(args).subList(first, args.length));
+            } else if (args.length == 1 && args[0].equals("--pipe")) {
+                // Results are written out a batch at a time rather than a line at a time
+                Writer output = new BufferedWriter(
+                        new OutputStreamWriter(System.out, Charset.defaultCharset()), PIPE_BUFFER);
+                OutputPrinter pipePrinter = new OutputPrinter(output, System.err);
+                AppController piped = new AppController(pipePrinter, new ErrorReporter(pipePrinter));
+                for (String option : options) applyOption(piped, option);
+                piped.setPhaseListener(stats);
+                piped.runPipe(System.in);
+            } else if (args.length >= 1 && args[0].equals("--watch")) {
+                if (args.length != 2) usage();
+                appController.runWatch(args[1]);
+            } else if (args.length >= 1 && args[0].equals("--daemon")) {
+                if (args.length != 2) usage();
+                try {
+                    new LoxDaemon(Path.of(args[1]), outputPrinter).serve();
+                } catch (IOException e) {
+                    outputPrinter.printError(e);
+                    System.exit(74);
+                }
+            } else if (args.length >= 1 && args[0].equals("--client")) {
+                if (args.length < 2 || args.length > 3) usage();
+                try {
+                    byte[] bytes = args.length == 3
+                            ? Files.readAllBytes(Path.of(args[2]))
+                            : System.in.readAllBytes();
+                    String source = new String(bytes, Charset.defaultCharset());
+                    System.exit(new LoxClient(Path.of(args[1]), outputPrinter).run(source));
+                } catch (IOException e) {
+                    outputPrinter.printError(e);
+                    System.exit(74);
+                }
+            } else if (args.length > 1) {
+                usage();
+            } else if (args.length == 1) {
+                appController.runFile(args[0]);
+            } else {
+                appController.runPrompt(System.in);
+            }
+        } finally {
+            if (metricsServer != null) metricsServer.close();
+        }
+    }
+
+    /**
+     * Arranges for the metrics to be written to a file when the JVM exits, however it exits
+     * @param path the file the metrics are written to
+     */
+    private static void dumpMetricsOnExit(Path path) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                new MetricsFormatter().write(writer);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics to " + path + ": " + e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Arranges for the metrics server to be stopped when the JVM exits, including by System.exit
+     * @param metricsServer the server
+     */
+    private static void closeOnExit(MetricsServer metricsServer) {
+        Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::close));
+    }
+
+    /**
+     * Arranges for the cost of each phase to be printed when the JVM exits, however it exits
+     * @param stats the totals of each phase
+     * @param outputPrinter where the report is printed
+     */
+    private static void printStatsOnExit(PhaseStats stats, OutputPrinter outputPrinter) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stats.print(outputPrinter)));
+    }
+
+    /**
+     * Applies an option that changes how scripts are run
+     * @param appController the controller the option applies to
+     * @param option the command-line argument
+     * @return true if the argument was an option, false otherwise
+     */
+    private static boolean applyOption(AppController appController, String option) {
+        if (option.startsWith("--cache=")) {
+            appController.setCacheCapacity((int)Math.min(Integer.MAX_VALUE, limit(option)));
+            return true;
+        }
+        if (option.startsWith("--fuel=")) {
+            appController.setFuel(limit(option));
+            return true;
         }
+        if (option.startsWith("--time-limit=")) {
+            appController.setTimeLimit(limit(option));
+            return true;
+        }
+        if (option.startsWith("--alloc-limit=")) {
+            appController.setAllocationLimit(limit(option));
+            return true;
+        }
+
+        switch (option) {
+            case "--startup-time" -> appController.setReportStartup(true);
+            case "--parallel" -> appController.setParallelEvaluation(true);
+            case "--dedupe" -> appController.setHashConsing(true);
+            case "--stream" -> appController.setStreaming(true);
+            case "--ast" -> appController.setPrintAst(true);
+            case "--off-heap" -> appController.setOffHeap(true);
+            case "--compile" -> appController.setCompiled(true);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the value of an option that takes a positive number
+     * @param option the option, written as --name=value
+     * @return the value of the option
+     */
+    private static long limit(String option) {
+        try {
+            long value = Long.parseLong(option.substring(option.indexOf('=') + 1));
+            if (value > 0) return value;
+        } catch (NumberFormatException ignored) {
+        }
+        usage();
+        return 0;
+    }
+
+    /**
+     * Reads the port of the metrics server
+     * @param option the option, written as --metrics-port=port
+     * @return the port, or 0 for any free port
+     */
+    private static int port(String option) {
+        try {
+            int port = Integer.parseInt(option.substring(option.indexOf('=') + 1));
+            if (port >= 0 && port <= 65535) return port;
+        } catch (NumberFormatException ignored) {
+        }
+        usage();
+        return 0;
+    }
+
+    /**
+     * Prints how to invoke the interpreter and exits
+     */
+    private static void usage() {
+        System.out.println(USAGE);
+        System.exit(64);
     }
-}
\ No newline at end of file
+}
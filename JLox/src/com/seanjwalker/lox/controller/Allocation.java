@@ -0,0 +1,24 @@
+package com.seanjwalker.lox.controller;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads how much memory the current thread has allocated, on JVMs that count it
+ */
+final class Allocation {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private Allocation() {}
+
+    /**
+     * Gives the number of bytes the current thread has allocated, if the JVM counts them
+     * @return the bytes allocated so far, or -1 if they are not counted
+     */
+    static long currentThreadBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean counting && counting.isThreadAllocatedMemorySupported()) {
+            return counting.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
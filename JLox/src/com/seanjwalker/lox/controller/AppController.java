@@ -1,22 +1,57 @@
 package com.seanjwalker.lox.controller;
 
 import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.ExpressionFactory;
+import com.seanjwalker.lox.model.HashConsingExpressionFactory;
+import com.seanjwalker.lox.model.Metrics;
 import com.seanjwalker.lox.model.Token;
 import com.seanjwalker.lox.view.ErrorReporter;
 import com.seanjwalker.lox.view.OutputPrinter;
 
 import java.io.*;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Controller for the Lox interpreter
  */
 public class AppController {
+    private static final Map<PhaseListener.Phase, Metrics.Histogram> phaseLatencies =
+            new EnumMap<>(PhaseListener.Phase.class);
+
+    static {
+        for (PhaseListener.Phase phase : PhaseListener.Phase.values()) {
+            phaseLatencies.put(phase, Metrics.phaseLatency(phase.name().toLowerCase()));
+        }
+    }
+
     private final OutputPrinter outputPrinter;
     private final ErrorReporter errorReporter;
+    private boolean reportStartup = false;
+    private boolean parallelEvaluation = false;
+    private boolean hashConsing = false;
+    private boolean streaming = false;
+    private boolean printAst = false;
+    private boolean offHeap = false;
+    private boolean compiled = false;
+    private long fuel = Budget.NO_LIMIT;
+    private long timeLimitMillis = Budget.NO_LIMIT;
+    private long allocationLimit = Budget.NO_LIMIT;
+    private ProgramCache programCache = null;
+    private PhaseListener phaseListener = null;
+    private final ThreadLocal<long[]> phaseStarts =
+            ThreadLocal.withInitial(() -> new long[PhaseListener.Phase.values().length]);
 
     /**
      * Constructor
@@ -28,11 +63,159 @@ public class AppController {
         this.errorReporter = errorReporter;
     }
 
+    /**
+     * Sets whether the time from JVM start to the first result is reported after the first run
+     * @param reportStartup true to report the time to first result
+     */
+    public void setReportStartup(boolean reportStartup) {
+        this.reportStartup = reportStartup;
+    }
+
+    /**
+     * Sets whether large independent operands are evaluated on several threads
+     * @param parallelEvaluation true to evaluate with a ParallelInterpreter
+     */
+    public void setParallelEvaluation(boolean parallelEvaluation) {
+        this.parallelEvaluation = parallelEvaluation;
+    }
+
+    /**
+     * Sets whether repeated subtrees are parsed into one shared node and evaluated once per run
+     * @param hashConsing true to parse with a HashConsingExpressionFactory
+     */
+    public void setHashConsing(boolean hashConsing) {
+        this.hashConsing = hashConsing;
+    }
+
+    /**
+     * Sets whether the parser pulls tokens from the scanner as it needs them instead of after a complete scan
+     * @param streaming true to parse from a TokenRing
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Sets whether the syntax tree is printed instead of evaluated
+     * @param printAst true to print the tree with an AstMaker
+     */
+    public void setPrintAst(boolean printAst) {
+        this.printAst = printAst;
+    }
+
+    /**
+     * Sets whether script files are mapped and scanned off the heap instead of read into a String
+     * @param offHeap true to run files through a SegmentScanner
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Sets whether syntax trees are compiled into closures before they are evaluated.
+     * Compiled expressions are not metered, so evaluations with any limit set are still interpreted
+     * @param compiled true to evaluate through a CompiledExpression
+     */
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    /**
+     * Sets how many parsed programs are kept, so a script run again is not scanned and parsed again.
+     * Only sources up to ProgramCache.MAX_SOURCE_LENGTH characters are cached
+     * @param capacity the most programs kept
+     */
+    public void setCacheCapacity(int capacity) {
+        this.programCache = new ProgramCache("programs", capacity);
+    }
+
+    /**
+     * Shares a cache of parsed programs with other controllers set up with the same options
+     * @param programCache the cache
+     */
+    void setProgramCache(ProgramCache programCache) {
+        this.programCache = programCache;
+    }
+
+    /**
+     * Sets the number of nodes one evaluation may evaluate
+     * @param fuel the number of nodes, or Budget.NO_LIMIT
+     */
+    public void setFuel(long fuel) {
+        this.fuel = fuel;
+    }
+
+    /**
+     * Sets how long one evaluation may take
+     * @param timeLimitMillis the time limit in milliseconds, or Budget.NO_LIMIT
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    /**
+     * Sets how much memory one evaluation may allocate
+     * @param allocationLimit the number of bytes, or Budget.NO_LIMIT
+     */
+    public void setAllocationLimit(long allocationLimit) {
+        this.allocationLimit = allocationLimit;
+    }
+
+    /**
+     * Sets the listener told when each phase of a run begins and ends
+     * @param phaseListener the listener, or null for none
+     */
+    public void setPhaseListener(PhaseListener phaseListener) {
+        this.phaseListener = phaseListener;
+    }
+
+    /**
+     * Gives the listener told of each phase
+     * @return the listener, or null for none
+     */
+    PhaseListener phaseListener() {
+        return phaseListener;
+    }
+
+    /**
+     * Runs each script once so the classes and code paths they use get loaded.
+     * This is the training run used to dump a class-data-sharing archive
+     * @param paths the paths to the representative scripts
+     */
+    public void runTraining(List<String> paths) {
+        for (String path : paths) {
+            try {
+                run(Files.readString(Paths.get(path), Charset.defaultCharset()));
+            } catch (IOException e) {
+                this.outputPrinter.printError(e);
+            }
+            errorReporter.hadError = false;
+            errorReporter.hadRuntimeError = false;
+        }
+    }
+
     /**
      * Runs the given script
      * @param path the path to the script
      */
     public void runFile(String path) {
+        if (offHeap) {
+            runMapped(Paths.get(path));
+        } else {
+            runInMemory(path);
+        }
+
+        // Indicate an error in the exit code.
+        if (errorReporter.hadError) System.exit(65);
+        if (errorReporter.hadRuntimeError) System.exit(70);
+    }
+
+    /**
+     * Reads a whole script into a String and runs it
+     * @param path the path to the script
+     */
+    private void runInMemory(String path) {
+        startPhase(PhaseListener.Phase.READ);
         byte[] bytes = null;
         try {
             bytes = Files.readAllBytes(Paths.get(path));
@@ -40,10 +223,42 @@ public class AppController {
             this.outputPrinter.printError(e);
         }
         assert bytes != null;
-        run(new String(bytes, Charset.defaultCharset()));
+        String source = new String(bytes, Charset.defaultCharset());
+        finishPhase(PhaseListener.Phase.READ);
+        run(source);
+    }
 
-        // Indicate an error in the exit code.
-        if (errorReporter.hadError) System.exit(65);
+    /**
+     * Runs a UTF-8 script without bringing it or its tokens onto the heap.
+     * The file is mapped into memory and scanned into an off-heap TokenSegment, and the parser pulls Token
+     * objects from it a few at a time. The mapping and the tokens are freed as soon as parsing ends
+     * @param path the path to the script
+     */
+    private void runMapped(Path path) {
+        Metrics.scriptsRun.increment();
+        ExpressionFactory factory = newFactory();
+        Expression expression;
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             TokenSegment tokens = new TokenSegment()) {
+            startPhase(PhaseListener.Phase.READ);
+            MemorySegment source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            finishPhase(PhaseListener.Phase.READ);
+
+            startPhase(PhaseListener.Phase.SCAN);
+            new SegmentScanner(source, tokens, this.errorReporter).scanTokens();
+            finishPhase(PhaseListener.Phase.SCAN);
+
+            startPhase(PhaseListener.Phase.PARSE);
+            expression = new Parser(new TokenRing(tokens.cursor(source)), this.errorReporter, factory).parse();
+            finishPhase(PhaseListener.Phase.PARSE);
+        } catch (IOException e) {
+            this.outputPrinter.printError(e);
+            return;
+        }
+
+        if (errorReporter.hadError) return;
+        execute(optimize(expression, factory));
     }
 
     /**
@@ -64,21 +279,242 @@ public class AppController {
             if (line == null) break;
             run(line);
             errorReporter.hadError = false;
+            errorReporter.hadRuntimeError = false;
         }
     }
 
     /**
-     * Parses tokens from the source and runs instructions
+     * Runs every line of a non-interactive input as its own script, printing results in input order.
+     * Reading, scanning and parsing, evaluating and printing each run on their own thread,
+     * and no prompt is written
+     * @param input the stream the lines are read from
+     */
+    public void runPipe(InputStream input) {
+        Reader inputReader = new InputStreamReader(input);
+        new Pipeline(this, outputPrinter, errorReporter).run(new BufferedReader(inputReader));
+    }
+
+    /**
+     * Runs every script under a directory, then runs each one again whenever its content changes.
+     * Returns only if the directory cannot be watched or the thread is interrupted
+     * @param directory the path to the directory
+     */
+    public void runWatch(String directory) {
+        try {
+            new ScriptWatcher(this, outputPrinter, errorReporter, Paths.get(directory)).run();
+        } catch (IOException e) {
+            this.outputPrinter.printError(e);
+        }
+    }
+
+    /**
+     * Runs a program parsed ahead of time, reporting its syntax errors or evaluating it and printing its value
+     * @param program the program
+     */
+    void run(Program program) {
+        if (program.hadError()) {
+            program.errors().replay(this.errorReporter);
+            return;
+        }
+        execute(program);
+    }
+
+    /**
+     * Parses tokens from the source, evaluates the result and prints its value
      * @param source the source code
      */
-    private void run(String source)  {
-        Scanner scanner = new Scanner(source, this.errorReporter);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens, this.errorReporter);
-        Expression expression = parser.parse();
+    void run(String source)  {
+        Metrics.scriptsRun.increment();
+        if (programCache != null && source.length() <= ProgramCache.MAX_SOURCE_LENGTH) {
+            startPhase(PhaseListener.Phase.PARSE);
+            Program program = program(source);
+            finishPhase(PhaseListener.Phase.PARSE);
+
+            run(program);
+            return;
+        }
+
+        ExpressionFactory factory = newFactory();
+        Expression expression = streaming ? parseStreaming(source, factory) : parse(source, factory);
 
         if (errorReporter.hadError) return;
+        execute(optimize(expression, factory));
+    }
+
+    /**
+     * Makes a program of a syntax tree parsed without errors, compiling it if that was asked for
+     * @param expression the syntax tree
+     * @param factory the factory the syntax tree was created with
+     * @return the program
+     */
+    private Program optimize(Expression expression, ExpressionFactory factory) {
+        CompiledExpression compiledExpression = null;
+        if (compiles()) {
+            startPhase(PhaseListener.Phase.OPTIMIZE);
+            compiledExpression = new ParameterizedExpression(expression).compile();
+            finishPhase(PhaseListener.Phase.OPTIMIZE);
+        }
+        return new Program(expression, Program.sharedNodes(factory), compiledExpression, new DeferredErrors());
+    }
+
+    /**
+     * Evaluates a program and prints its value, or prints its syntax tree if that was asked for
+     * @param program the program, free of errors
+     */
+    private void execute(Program program) {
+        if (printAst) {
+            try {
+                new AstMaker().print(program.expression(), this.outputPrinter);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.outputPrinter.println("");
+            return;
+        }
+
+        startPhase(PhaseListener.Phase.EVALUATE);
+        Interpreter interpreter = newInterpreter(program.sharedNodes());
+        try {
+            Object value = program.compiled() != null ? program.compiled().evaluate(Map.of())
+                    : interpreter.interpret(program.expression());
+            String text = interpreter.stringify(value);
+            finishPhase(PhaseListener.Phase.EVALUATE);
+
+            startPhase(PhaseListener.Phase.PRINT);
+            this.outputPrinter.println(text);
+            finishPhase(PhaseListener.Phase.PRINT);
+        } catch (RuntimeError error) {
+            finishPhase(PhaseListener.Phase.EVALUATE);
 
-        this.outputPrinter.println(new AstMaker().print(expression));
+            startPhase(PhaseListener.Phase.PRINT);
+            errorReporter.runtimeError(error.token.line(), error.getMessage(), error.kind());
+            finishPhase(PhaseListener.Phase.PRINT);
+        }
+
+        if (reportStartup) {
+            reportStartup = false;
+            this.outputPrinter.printError("Time to first result: "
+                    + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        }
+    }
+
+    /**
+     * Creates the factory for the syntax tree of one script
+     * @return a hash-consing factory if repeated subtrees are shared, a plain one otherwise
+     */
+    private ExpressionFactory newFactory() {
+        return hashConsing ? new HashConsingExpressionFactory() : new ExpressionFactory();
+    }
+
+    /**
+     * Scans and parses a script into a program matching the options, holding back its errors
+     * @param source the source code
+     * @return the program
+     */
+    Program parseProgram(String source) {
+        return Program.parse(source, newFactory(), compiles());
+    }
+
+    /**
+     * Gives the program for a script, from the cache if there is one
+     * @param source the source code
+     * @return the program
+     */
+    Program program(String source) {
+        if (programCache == null || source.length() > ProgramCache.MAX_SOURCE_LENGTH) return parseProgram(source);
+        return programCache.get(source, this::parseProgram);
+    }
+
+    /**
+     * Creates the interpreter for one evaluation, with a fresh budget if any limit is set.
+     * The budget counts allocation by the calling thread, so this must be called on the thread that evaluates
+     * @param sharedNodes the nodes that appear more than once in the syntax tree
+     * @return an interpreter matching the options
+     */
+    Interpreter newInterpreter(Set<Expression> sharedNodes) {
+        Budget budget = fuel == Budget.NO_LIMIT && timeLimitMillis == Budget.NO_LIMIT
+                && allocationLimit == Budget.NO_LIMIT ? null : new Budget(fuel, timeLimitMillis, allocationLimit);
+        if (parallelEvaluation) {
+            return new ParallelInterpreter(Map.of(), ParallelInterpreter.DEFAULT_THRESHOLD, budget);
+        }
+        if (!sharedNodes.isEmpty()) {
+            return new MemoizingInterpreter(Map.of(), sharedNodes, budget);
+        }
+        return new Interpreter(Map.of(), budget);
+    }
+
+    /**
+     * Gives whether syntax trees are compiled before they are evaluated, which is only done when no limit is set
+     * @return true if trees are compiled
+     */
+    private boolean compiles() {
+        return compiled && fuel == Budget.NO_LIMIT && timeLimitMillis == Budget.NO_LIMIT
+                && allocationLimit == Budget.NO_LIMIT;
+    }
+
+    /**
+     * Gives whether syntax trees are printed instead of evaluated
+     * @return true if trees are printed
+     */
+    boolean printsAst() {
+        return printAst;
+    }
+
+    /**
+     * Scans the whole source, then parses its tokens
+     * @param source the source code
+     * @param factory creates the nodes of the syntax tree
+     * @return the syntax tree
+     */
+    private Expression parse(String source, ExpressionFactory factory) {
+        startPhase(PhaseListener.Phase.SCAN);
+        List<Token> tokens = source.length() >= ParallelScanner.MIN_PARALLEL_LENGTH
+                ? new ParallelScanner(source, this.errorReporter).scanTokens()
+                : new Scanner(source, this.errorReporter).scanTokens();
+        finishPhase(PhaseListener.Phase.SCAN);
+
+        startPhase(PhaseListener.Phase.PARSE);
+        Expression expression = new Parser(tokens, this.errorReporter, factory).parse();
+        finishPhase(PhaseListener.Phase.PARSE);
+        return expression;
+    }
+
+    /**
+     * Parses the source while it is being scanned, holding only a few tokens at a time.
+     * Scanning happens within the parse phase.
+     * The parse error, if any, is held back until the rest of the source has been scanned,
+     * so errors are reported in the same order as when the whole source is scanned first
+     * @param source the source code
+     * @param factory creates the nodes of the syntax tree
+     * @return the syntax tree
+     */
+    private Expression parseStreaming(String source, ExpressionFactory factory) {
+        startPhase(PhaseListener.Phase.PARSE);
+        TokenRing tokens = new TokenRing(new Scanner(source, this.errorReporter));
+        DeferredErrors parseErrors = new DeferredErrors();
+        Expression expression = new Parser(tokens, parseErrors, factory).parse();
+        tokens.drain();
+        parseErrors.replay(this.errorReporter);
+        finishPhase(PhaseListener.Phase.PARSE);
+        return expression;
+    }
+
+    /**
+     * Tells the phase listener, if any, that a phase is beginning.
+     * Phases are timed per thread, so the stages of a pipeline can each report theirs
+     * @param phase the phase beginning
+     */
+    void startPhase(PhaseListener.Phase phase) {
+        if (phaseListener != null) phaseListener.phaseStarted(phase);
+        phaseStarts.get()[phase.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * Records how long a phase took and tells the phase listener, if any, that it has ended
+     * @param phase the phase ending
+     */
+    void finishPhase(PhaseListener.Phase phase) {
+        phaseLatencies.get(phase).record(System.nanoTime() - phaseStarts.get()[phase.ordinal()]);
+        if (phaseListener != null) phaseListener.phaseFinished(phase);
     }
 }
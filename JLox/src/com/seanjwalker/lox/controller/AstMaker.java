@@ -1,6 +1,12 @@
 package com.seanjwalker.lox.controller;
 
 import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.Numbers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /*
 Yes, this class breaks MVC.
@@ -17,41 +23,150 @@ please hire me
  */
 public class AstMaker implements Expression.Visitor<String> {
     public String print(Expression expression) {
-        return expression.accept(this);
+        StringBuilder builder = new StringBuilder();
+        try {
+            print(expression, builder);
+        } catch (IOException e) {
+            // A StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes a syntax tree in one pass, straight into the output.
+     * Pending pieces are kept on an explicit stack instead of the call stack,
+     * so no intermediate strings are built and arbitrarily deep trees cannot overflow
+     * @param expression the root of the tree
+     * @param output where the tree is written
+     * @throws IOException if the output cannot be written to
+     */
+    public void print(Expression expression, Appendable output) throws IOException {
+        Deque<Object> pending = new ArrayDeque<>();
+        Expression.Visitor<Void> expander = new Expander(pending);
+        if (expression != null) pending.push(expression);
+
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof Expression) ((Expression)next).accept(expander);
+            else output.append((String)next);
+        }
     }
 
     @Override
     public String visit(Expression.Binary expression) {
-        return parenthesize(expression.operator.lexeme,
-                expression.left, expression.right);
+        return print(expression);
+    }
+
+    @Override
+    public String visit(Expression.Conditional expression) {
+        return print(expression);
     }
 
     @Override
     public String visit(Expression.Grouping expression) {
-        return parenthesize("group", expression.expression);
+        return print(expression);
     }
 
     @Override
     public String visit(Expression.Literal expression) {
-        if (expression.value == null) return "nil";
-        return expression.value.toString();
+        return print(expression);
+    }
+
+    @Override
+    public String visit(Expression.Logical expression) {
+        return print(expression);
+    }
+
+    @Override
+    public String visit(Expression.Sequence expression) {
+        return print(expression);
     }
 
     @Override
     public String visit(Expression.Unary expression) {
-        return parenthesize(expression.operator.lexeme, expression.right);
+        return print(expression);
     }
 
-    private String parenthesize(String name, Expression... expressions) {
-        StringBuilder builder = new StringBuilder();
+    @Override
+    public String visit(Expression.Variable expression) {
+        return print(expression);
+    }
 
-        builder.append("(").append(name);
-        for (Expression expression : expressions) {
-            builder.append(" ");
-            builder.append(expression.accept(this));
+    /**
+     * Replaces a node on the stack of pending pieces with the pieces it is printed as.
+     * Pieces are pushed in reverse so that they come off the stack in order
+     */
+    private static class Expander implements Expression.Visitor<Void> {
+        private final Deque<Object> pending;
+
+        /**
+         * Constructor
+         * @param pending the stack of pieces still to be printed, which the expander pushes onto
+         */
+        Expander(Deque<Object> pending) {
+            this.pending = pending;
         }
-        builder.append(")");
 
-        return builder.toString();
+        @Override
+        public Void visit(Expression.Binary expression) {
+            return parenthesize(expression.operator.lexeme, expression.left, expression.right);
+        }
+
+        @Override
+        public Void visit(Expression.Conditional expression) {
+            return parenthesize("?:", expression.condition, expression.thenBranch, expression.elseBranch);
+        }
+
+        @Override
+        public Void visit(Expression.Grouping expression) {
+            return parenthesize("group", expression.expression);
+        }
+
+        @Override
+        public Void visit(Expression.Literal expression) {
+            Object value = expression.value;
+            if (value == null) pending.push("nil");
+            else if (Numbers.isNumber(value)) pending.push(Double.toString(Numbers.toDouble(value)));
+            else pending.push(value.toString());
+            return null;
+        }
+
+        @Override
+        public Void visit(Expression.Logical expression) {
+            return parenthesize(expression.operator.lexeme, expression.left, expression.right);
+        }
+
+        @Override
+        public Void visit(Expression.Sequence expression) {
+            return parenthesize(",", expression.expressions);
+        }
+
+        @Override
+        public Void visit(Expression.Unary expression) {
+            return parenthesize(expression.operator.lexeme, expression.right);
+        }
+
+        @Override
+        public Void visit(Expression.Variable expression) {
+            pending.push(expression.name.lexeme);
+            return null;
+        }
+
+        /**
+         * Pushes the pieces of a node printed as its name and operands in parentheses, separated by spaces
+         * @param name the name of the node
+         * @param expressions the operands of the node
+         * @return null, as the pieces are pushed rather than returned
+         */
+        private Void parenthesize(String name, Expression... expressions) {
+            pending.push(")");
+            for (int i = expressions.length - 1; i >= 0; i--) {
+                pending.push(expressions[i]);
+                pending.push(" ");
+            }
+            pending.push("(" + name);
+            return null;
+        }
     }
 }
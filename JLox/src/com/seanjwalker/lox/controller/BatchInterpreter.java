@@ -0,0 +1,375 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.Numbers;
+import com.seanjwalker.lox.model.Token;
+import com.seanjwalker.lox.model.TokenType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates one expression over many rows at once.
+ * Variables are bound to double[] columns, and every node produces a whole column
+ * (double[] for numbers, boolean[] for comparisons) in a single tight loop.
+ * Subtrees without variables stay scalar, evaluated by the scalar interpreter, until they meet a column.
+ * Intermediate columns are overwritten in place, while the input columns are never modified
+ */
+public class BatchInterpreter implements Expression.Visitor<Object> {
+    private final Map<String, double[]> columns;
+    private final Interpreter scalarInterpreter = new Interpreter();
+    private final Set<double[]> inputColumns = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final int rows;
+
+    /**
+     * Constructor
+     * @param columns the input columns, by variable name. Every column must have the same length
+     */
+    public BatchInterpreter(Map<String, double[]> columns) {
+        this.columns = columns;
+
+        int rows = -1;
+        for (Map.Entry<String, double[]> column : columns.entrySet()) {
+            if (rows != -1 && column.getValue().length != rows) {
+                throw new IllegalArgumentException("Column " + column.getKey() + " has "
+                        + column.getValue().length + " rows, expected " + rows + ".");
+            }
+            rows = column.getValue().length;
+            inputColumns.add(column.getValue());
+        }
+        this.rows = Math.max(rows, 0);
+    }
+
+    /**
+     * Evaluates the expression for every row
+     * @param expression the syntax tree to evaluate
+     * @return a double[] or boolean[] holding the value of each row
+     */
+    public Object interpret(Expression expression) {
+        Object result = evaluate(expression);
+
+        if (result instanceof double[] || result instanceof boolean[]) return result;
+        if (Numbers.isNumber(result)) {
+            double[] column = new double[rows];
+            Arrays.fill(column, Numbers.toDouble(result));
+            return column;
+        }
+        if (result instanceof Boolean) {
+            boolean[] column = new boolean[rows];
+            Arrays.fill(column, (boolean)result);
+            return column;
+        }
+
+        throw new IllegalStateException("A batch evaluation must produce numbers or booleans");
+    }
+
+    @Override
+    public Object visit(Expression.Literal expression) {
+        return expression.value;
+    }
+
+    @Override
+    public Object visit(Expression.Grouping expression) {
+        return evaluate(expression.expression);
+    }
+
+    @Override
+    public Object visit(Expression.Variable expression) {
+        double[] column = columns.get(expression.name.lexeme);
+        if (column == null) {
+            throw new RuntimeError(expression.name, "Undefined variable '" + expression.name.lexeme + "'.");
+        }
+        return column;
+    }
+
+    @Override
+    public Object visit(Expression.Unary expression) {
+        Object right = evaluate(expression.right);
+        if (isScalar(right)) return scalarInterpreter.unary(expression.operator, right);
+
+        switch (expression.operator.type) {
+            case MINUS -> {
+                double[] operand = numberColumn(expression.operator, right);
+                double[] result = target(operand);
+                for (int i = 0; i < rows; i++) result[i] = -operand[i];
+                return result;
+            }
+            case BANG -> {
+                // Numbers are always truthy
+                if (right instanceof double[]) return new boolean[rows];
+
+                // Boolean columns are always intermediate, so they are negated in place
+                boolean[] operand = (boolean[])right;
+                for (int i = 0; i < rows; i++) operand[i] = !operand[i];
+                return operand;
+            }
+        }
+
+        throw new IllegalStateException("Unary exception must be made using the - or ! operator");
+    }
+
+    @Override
+    public Object visit(Expression.Binary expression) {
+        Object left = evaluate(expression.left);
+        Object right = evaluate(expression.right);
+        Token operator = expression.operator;
+
+        if (isScalar(left) && isScalar(right)) {
+            return scalarInterpreter.binary(operator, left, right);
+        }
+
+        switch (operator.type) {
+            case MINUS, PLUS, SLASH, STAR -> {
+                return arithmetic(operator, numberColumn(operator, left), numberColumn(operator, right));
+            }
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> {
+                return comparison(operator, numberColumn(operator, left), numberColumn(operator, right));
+            }
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                boolean[] result = equality(operator, left, right);
+                if (operator.type == TokenType.BANG_EQUAL) {
+                    for (int i = 0; i < rows; i++) result[i] = !result[i];
+                }
+                return result;
+            }
+        }
+
+        throw new IllegalStateException(operator.lexeme + " is not a valid operator for a binary expression");
+    }
+
+    /**
+     * Evaluates and or or for every row.
+     * The right operand is evaluated only if some row needs it: never when the left operand is a scalar
+     * or a column that decides every row, since numbers are always truthy
+     * @param expression the logical expression visited
+     * @return the value of each row, as a column, or a scalar if the left operand was one
+     */
+    @Override
+    public Object visit(Expression.Logical expression) {
+        Object left = evaluate(expression.left);
+        boolean or = expression.operator.type == TokenType.OR;
+
+        if (isScalar(left)) {
+            if (Interpreter.isTruthy(left) == or) return left;
+            return evaluate(expression.right);
+        }
+        if (left instanceof double[]) return or ? left : evaluate(expression.right);
+
+        // Rows where the left operand is true for or, or false for and, are decided already
+        boolean[] decided = (boolean[])left;
+        if (all(decided, or)) return left;
+
+        Object right = evaluate(expression.right);
+        if (!isBooleans(right)) {
+            throw new RuntimeError(expression.operator, "Operands must be booleans.");
+        }
+        boolean[] rightColumn = booleanColumn(right);
+        for (int i = 0; i < rows; i++) {
+            if (decided[i] != or) decided[i] = rightColumn[i];
+        }
+        return decided;
+    }
+
+    /**
+     * Evaluates each expression of a sequence for every row, in order, keeping only the last value.
+     * The earlier ones are still evaluated, as an error in any row of them is an error of the whole batch
+     * @param expression the sequence expression visited
+     * @return the value of the last expression
+     */
+    @Override
+    public Object visit(Expression.Sequence expression) {
+        Expression[] expressions = expression.expressions;
+        int last = expressions.length - 1;
+        for (int i = 0; i < last; i++) {
+            evaluate(expressions[i]);
+        }
+        return evaluate(expressions[last]);
+    }
+
+    /**
+     * Evaluates a conditional expression for every row.
+     * A branch is evaluated only if the condition chooses it for some row, and the two are merged row by row
+     * @param expression the conditional expression visited
+     * @return the value of each row, as a column, or a scalar if the condition was one
+     */
+    @Override
+    public Object visit(Expression.Conditional expression) {
+        Object condition = evaluate(expression.condition);
+
+        if (isScalar(condition)) {
+            return evaluate(Interpreter.isTruthy(condition) ? expression.thenBranch : expression.elseBranch);
+        }
+        if (condition instanceof double[]) return evaluate(expression.thenBranch);
+
+        boolean[] chosen = (boolean[])condition;
+        if (all(chosen, true)) return evaluate(expression.thenBranch);
+        if (all(chosen, false)) return evaluate(expression.elseBranch);
+
+        Object thenValue = evaluate(expression.thenBranch);
+        Object elseValue = evaluate(expression.elseBranch);
+        if (isNumbers(thenValue) && isNumbers(elseValue)) {
+            double[] thenColumn = numberColumn(expression.operator, thenValue);
+            double[] elseColumn = numberColumn(expression.operator, elseValue);
+            double[] result = target(thenColumn, elseColumn);
+            for (int i = 0; i < rows; i++) result[i] = chosen[i] ? thenColumn[i] : elseColumn[i];
+            return result;
+        }
+        if (isBooleans(thenValue) && isBooleans(elseValue)) {
+            boolean[] thenColumn = booleanColumn(thenValue);
+            boolean[] elseColumn = booleanColumn(elseValue);
+            for (int i = 0; i < rows; i++) chosen[i] = chosen[i] ? thenColumn[i] : elseColumn[i];
+            return chosen;
+        }
+
+        throw new RuntimeError(expression.operator, "Branches must both be numbers or both be booleans.");
+    }
+
+    /**
+     * Applies an arithmetic operator to every row
+     * @param operator the operator to apply
+     * @param left the left operand column
+     * @param right the right operand column
+     * @return the result column
+     */
+    private double[] arithmetic(Token operator, double[] left, double[] right) {
+        double[] result = target(left, right);
+
+        switch (operator.type) {
+            case MINUS -> { for (int i = 0; i < rows; i++) result[i] = left[i] - right[i]; }
+            case PLUS -> { for (int i = 0; i < rows; i++) result[i] = left[i] + right[i]; }
+            case SLASH -> { for (int i = 0; i < rows; i++) result[i] = left[i] / right[i]; }
+            case STAR -> { for (int i = 0; i < rows; i++) result[i] = left[i] * right[i]; }
+        }
+
+        return result;
+    }
+
+    /**
+     * Applies a comparison operator to every row
+     * @param operator the operator to apply
+     * @param left the left operand column
+     * @param right the right operand column
+     * @return the result column
+     */
+    private boolean[] comparison(Token operator, double[] left, double[] right) {
+        boolean[] result = new boolean[rows];
+
+        switch (operator.type) {
+            case GREATER -> { for (int i = 0; i < rows; i++) result[i] = left[i] > right[i]; }
+            case GREATER_EQUAL -> { for (int i = 0; i < rows; i++) result[i] = left[i] >= right[i]; }
+            case LESS -> { for (int i = 0; i < rows; i++) result[i] = left[i] < right[i]; }
+            case LESS_EQUAL -> { for (int i = 0; i < rows; i++) result[i] = left[i] <= right[i]; }
+        }
+
+        return result;
+    }
+
+    /**
+     * Compares every row for equality, following the same rules as the scalar interpreter
+     * @param operator the operator being applied
+     * @param left the left operand, a column or a scalar
+     * @param right the right operand, a column or a scalar
+     * @return a column that is true where the operands are equal
+     */
+    private boolean[] equality(Token operator, Object left, Object right) {
+        if (left instanceof boolean[] || right instanceof boolean[]) {
+            if (!isBooleans(left) || !isBooleans(right)) return new boolean[rows];
+
+            boolean[] leftColumn = booleanColumn(left);
+            boolean[] rightColumn = booleanColumn(right);
+            boolean[] result = new boolean[rows];
+            for (int i = 0; i < rows; i++) result[i] = leftColumn[i] == rightColumn[i];
+            return result;
+        }
+
+        if (!isNumbers(left) || !isNumbers(right)) return new boolean[rows];
+
+        double[] leftColumn = numberColumn(operator, left);
+        double[] rightColumn = numberColumn(operator, right);
+        boolean[] result = new boolean[rows];
+        for (int i = 0; i < rows; i++) {
+            // Matches Double.equals, which the scalar interpreter uses
+            result[i] = Double.doubleToLongBits(leftColumn[i]) == Double.doubleToLongBits(rightColumn[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Provides an operand as a column of numbers, broadcasting a scalar to every row
+     * @param operator the operator the operand belongs to
+     * @param operand the evaluated operand
+     * @return the operand as a column
+     * @throws RuntimeError if the operand is not a number
+     */
+    private double[] numberColumn(Token operator, Object operand) {
+        if (operand instanceof double[]) return (double[])operand;
+        if (Numbers.isNumber(operand)) {
+            double[] column = new double[rows];
+            Arrays.fill(column, Numbers.toDouble(operand));
+            return column;
+        }
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    /**
+     * Provides an operand as a column of booleans, broadcasting a scalar to every row
+     * @param operand the evaluated operand, a boolean[] or Boolean
+     * @return the operand as a column
+     */
+    private boolean[] booleanColumn(Object operand) {
+        if (operand instanceof boolean[]) return (boolean[])operand;
+        boolean[] column = new boolean[rows];
+        Arrays.fill(column, (boolean)operand);
+        return column;
+    }
+
+    /**
+     * Picks the array a result is written to.
+     * An intermediate operand column is reused; an input column gets copied instead
+     * @param operands the operand columns of the node
+     * @return the array to write the result into
+     */
+    private double[] target(double[]... operands) {
+        for (double[] operand : operands) {
+            if (!inputColumns.contains(operand)) return operand;
+        }
+        return new double[rows];
+    }
+
+    /**
+     * Determines whether every row of a column has a value
+     * @param column the column to check
+     * @param value the value looked for
+     * @return true if no row differs from the value
+     */
+    private boolean all(boolean[] column, boolean value) {
+        for (int i = 0; i < rows; i++) {
+            if (column[i] != value) return false;
+        }
+        return true;
+    }
+
+    private boolean isScalar(Object value) {
+        return !(value instanceof double[]) && !(value instanceof boolean[]);
+    }
+
+    private boolean isNumbers(Object value) {
+        return value instanceof double[] || Numbers.isNumber(value);
+    }
+
+    private boolean isBooleans(Object value) {
+        return value instanceof boolean[] || value instanceof Boolean;
+    }
+
+    /**
+     * Helper method for evaluating inner expressions
+     * @param expression the expression to evaluate
+     * @return the evaluation of the expression, as a column or a scalar
+     */
+    private Object evaluate(Expression expression) {
+        return expression.accept(this);
+    }
+}
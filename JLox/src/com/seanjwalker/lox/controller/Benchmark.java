@@ -0,0 +1,199 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.Token;
+import com.seanjwalker.lox.view.ErrorReporter;
+import com.seanjwalker.lox.view.OutputPrinter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Runs scripts through the whole AppController pipeline many times and reports how fast each phase is.
+ * Every run is timed phase by phase, and the memory allocated by the running thread is counted,
+ * so work done on other threads by the parallel scanner or interpreter is timed but not counted.
+ * A phase listener the options set on the controller is still told of every phase, warmup runs included
+ */
+public final class Benchmark implements PhaseListener {
+    private final OutputPrinter outputPrinter;
+    private final AppController appController;
+    private final ErrorReporter errorReporter;
+    private final int warmupRuns;
+    private final int runs;
+    private final PhaseListener configuredListener;
+
+    private final Map<Phase, long[]> latencies = new EnumMap<>(Phase.class);
+    private int run;
+    private long phaseStart;
+
+    /**
+     * Constructor
+     * @param outputPrinter where the report is printed
+     * @param configure applies the interpreter's options to the controller being measured
+     * @param warmupRuns the number of unmeasured runs of each script before the measured ones
+     * @param runs the number of measured runs of each script
+     */
+    public Benchmark(OutputPrinter outputPrinter, Consumer<AppController> configure, int warmupRuns, int runs) {
+        this.outputPrinter = outputPrinter;
+        this.warmupRuns = warmupRuns;
+        this.runs = runs;
+
+        // The scripts' own output is not part of the report
+        OutputPrinter silentPrinter = new OutputPrinter(Writer.nullWriter(), Writer.nullWriter());
+        this.errorReporter = new ErrorReporter(silentPrinter);
+        this.appController = new AppController(silentPrinter, errorReporter);
+        configure.accept(appController);
+        this.configuredListener = appController.phaseListener();
+        appController.setPhaseListener(this);
+    }
+
+    /**
+     * Measures each script in turn and prints its report
+     * @param paths the paths to the scripts
+     */
+    public void runAll(List<String> paths) {
+        for (String path : paths) {
+            try {
+                measure(path, Files.readString(Paths.get(path), Charset.defaultCharset()));
+            } catch (IOException e) {
+                outputPrinter.printError(e);
+            }
+        }
+    }
+
+    /**
+     * Measures one script
+     * @param name the name the report gives the script
+     * @param source the source code of the script
+     */
+    void measure(String name, String source) {
+        List<Token> tokens = new Scanner(source, errorReporter).scanTokens();
+        Expression expression = new Parser(tokens, errorReporter).parse();
+        if (errorReporter.hadError) {
+            errorReporter.hadError = false;
+            outputPrinter.printError(name + ": skipped, the script has syntax errors");
+            return;
+        }
+        int nodes = countNodes(expression);
+
+        for (int i = 0; i < warmupRuns; i++) runOnce(source);
+
+        for (Phase phase : Phase.values()) latencies.put(phase, new long[runs]);
+        long allocatedBefore = Allocation.currentThreadBytes();
+        long wallStart = System.nanoTime();
+        for (run = 0; run < runs; run++) runOnce(source);
+        long wall = System.nanoTime() - wallStart;
+        long allocated = Allocation.currentThreadBytes() - allocatedBefore;
+
+        double seconds = wall / 1e9;
+        outputPrinter.println(String.format("%s: %d characters, %d tokens, %d nodes, %d runs",
+                name, source.length(), tokens.size(), nodes, runs));
+        outputPrinter.println(String.format("  %.0f tokens/s, %.0f nodes/s, %s bytes allocated/token",
+                (double)tokens.size() * runs / seconds, (double)nodes * runs / seconds,
+                allocatedBefore < 0 ? "n/a" : String.format("%.1f", (double)allocated / runs / tokens.size())));
+        for (Phase phase : Phase.values()) {
+            long[] times = latencies.get(phase);
+            Arrays.sort(times);
+            // Phases the options leave out, such as reading a file, have no times
+            if (times[times.length - 1] == 0) continue;
+            outputPrinter.println(String.format("  %-9s p50 %9.3f ms   p99 %9.3f ms",
+                    phase.name().toLowerCase(), percentile(times, 0.50) / 1e6, percentile(times, 0.99) / 1e6));
+        }
+    }
+
+    @Override
+    public void phaseStarted(Phase phase) {
+        if (configuredListener != null) configuredListener.phaseStarted(phase);
+        phaseStart = System.nanoTime();
+    }
+
+    @Override
+    public void phaseFinished(Phase phase) {
+        long[] times = latencies.get(phase);
+        if (times != null && run < times.length) times[run] = System.nanoTime() - phaseStart;
+        if (configuredListener != null) configuredListener.phaseFinished(phase);
+    }
+
+    /**
+     * Runs a script through the whole pipeline once
+     * @param source the source code of the script
+     */
+    private void runOnce(String source) {
+        appController.run(source);
+        errorReporter.hadError = false;
+        errorReporter.hadRuntimeError = false;
+    }
+
+    /**
+     * Finds the value at a percentile using the nearest-rank method
+     * @param sorted the values, in ascending order
+     * @param fraction the percentile as a fraction
+     * @return the value at the percentile
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) return 0;
+        int rank = (int)Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * Counts the nodes of a syntax tree
+     * @param expression the root of the tree
+     * @return the number of nodes in the tree
+     */
+    private static int countNodes(Expression expression) {
+        if (expression == null) return 0;
+        return expression.accept(new Expression.Visitor<Integer>() {
+            @Override
+            public Integer visit(Expression.Binary expression) {
+                return countNodes(expression.left) + countNodes(expression.right) + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Conditional expression) {
+                return countNodes(expression.condition) + countNodes(expression.thenBranch)
+                        + countNodes(expression.elseBranch) + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Grouping expression) {
+                return countNodes(expression.expression) + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Literal expression) {
+                return 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Logical expression) {
+                return countNodes(expression.left) + countNodes(expression.right) + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Sequence expression) {
+                int nodes = 1;
+                for (Expression part : expression.expressions) nodes += countNodes(part);
+                return nodes;
+            }
+
+            @Override
+            public Integer visit(Expression.Unary expression) {
+                return countNodes(expression.right) + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Variable expression) {
+                return 1;
+            }
+        });
+    }
+}
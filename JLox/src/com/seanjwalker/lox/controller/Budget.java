@@ -0,0 +1,104 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Token;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Limits on the work one evaluation may do: the number of nodes evaluated (its fuel),
+ * the time since the budget was created, and the memory allocated.
+ * Interpreters count nodes locally and charge them here only every checkInterval() nodes, and once more
+ * for what is left when an evaluation ends. The clock and the allocation counter are only read on a charge,
+ * so a budget costs little enough to leave on.
+ * Every limit may therefore be overrun by up to one interval's worth of work before the evaluation stops.
+ * Several threads of a ParallelInterpreter may charge the same budget
+ */
+public class Budget {
+    /**
+     * The value of a limit that is not enforced
+     */
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+
+    /**
+     * The most nodes an interpreter evaluates between charges
+     */
+    static final int CHECK_INTERVAL = 1024;
+
+    private final long fuel;
+    private final long deadline;
+    private final long allocationLimit;
+
+    private final AtomicLong fuelUsed = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final ThreadLocal<long[]> allocationMark = new ThreadLocal<>();
+
+    /**
+     * Constructor.
+     * The time limit starts counting now
+     * @param fuel the number of nodes that may be evaluated, or NO_LIMIT
+     * @param timeLimitMillis the milliseconds the evaluation may take, or NO_LIMIT
+     * @param allocationLimit the bytes the evaluation may allocate, or NO_LIMIT
+     */
+    public Budget(long fuel, long timeLimitMillis, long allocationLimit) {
+        this.fuel = fuel;
+        this.deadline = timeLimitMillis == NO_LIMIT ? NO_LIMIT : System.nanoTime() + timeLimitMillis * 1_000_000;
+        this.allocationLimit = allocationLimit;
+        if (allocationLimit != NO_LIMIT) allocatedSinceMark();
+    }
+
+    /**
+     * Gives the number of nodes an interpreter evaluates between charges.
+     * It is never more than the fuel, so a small fuel limit stops the evaluation near where it runs out
+     * @return the interval, at least 1
+     */
+    int checkInterval() {
+        return (int)Math.max(1, Math.min(CHECK_INTERVAL, fuel));
+    }
+
+    /**
+     * Gives the number of nodes charged so far
+     * @return the fuel used
+     */
+    public long fuelUsed() {
+        return fuelUsed.get();
+    }
+
+    /**
+     * Charges evaluated nodes and checks every limit
+     * @param nodes the number of nodes evaluated since the last charge
+     * @param location gives the token to report the error at, and is only called if a limit has been exceeded
+     * @throws BudgetExceededError if any limit has been exceeded
+     */
+    void charge(int nodes, Supplier<Token> location) {
+        if (fuelUsed.addAndGet(nodes) > fuel) {
+            throw new BudgetExceededError(location.get(), "Evaluation ran out of fuel after " + fuel + " nodes.");
+        }
+        if (deadline != NO_LIMIT && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededError(location.get(), "Evaluation exceeded its time limit.");
+        }
+        if (allocationLimit != NO_LIMIT && allocated.addAndGet(allocatedSinceMark()) > allocationLimit) {
+            throw new BudgetExceededError(location.get(), "Evaluation exceeded its allocation limit of "
+                    + allocationLimit + " bytes.");
+        }
+    }
+
+    /**
+     * Measures what the current thread has allocated since it last charged this budget.
+     * A thread's first charge only sets its mark, so a forked thread's first interval goes uncounted
+     * @return the bytes allocated since the mark, or 0 if the JVM does not count allocation
+     */
+    private long allocatedSinceMark() {
+        long now = Allocation.currentThreadBytes();
+        if (now < 0) return 0;
+
+        long[] mark = allocationMark.get();
+        if (mark == null) {
+            allocationMark.set(new long[] {now});
+            return 0;
+        }
+        long since = now - mark[0];
+        mark[0] = now;
+        return since;
+    }
+}
@@ -0,0 +1,30 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.model.Token;
+
+/**
+ * The error raised when an evaluation runs out of one of its budgets.
+ * It is a RuntimeError, so it is reported the same way, but callers can tell it apart to handle it differently
+ */
+public class BudgetExceededError extends RuntimeError {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     * @param token the token of the node being evaluated when the budget ran out
+     * @param message the message to serve the user regarding the error
+     */
+    public BudgetExceededError(Token token, String message) {
+        super(token, message);
+    }
+
+    /**
+     * Gives the kind the error is counted as in the metrics, which is not a runtime error as well
+     * @return the budget kind
+     */
+    @Override
+    public Metrics.ErrorKind kind() {
+        return Metrics.ErrorKind.BUDGET;
+    }
+}
@@ -0,0 +1,468 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.Numbers;
+import com.seanjwalker.lox.model.Rope;
+import com.seanjwalker.lox.model.Token;
+import com.seanjwalker.lox.model.TokenType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * An expression compiled once into a tree of closures, for evaluating many times.
+ * Everything the Interpreter decides on every visit is decided while compiling instead:
+ * each operator becomes a node that only does that operator's work, groupings disappear,
+ * subtrees without variables are evaluated once and become constants, and variables read
+ * a fixed slot of the arguments rather than looking up their name.
+ * Subtrees that can only produce a Double, such as any division, compile to DoubleNodes that pass
+ * unboxed doubles to each other, so only the value leaving such a subtree is boxed.
+ * Results and errors are the same as the Interpreter's. Nodes hold no state,
+ * so one instance can be evaluated on many threads at once; evaluations are not metered by a Budget
+ */
+public final class CompiledExpression {
+    /**
+     * A compiled subtree
+     */
+    @FunctionalInterface
+    private interface Node {
+        /**
+         * Evaluates the subtree
+         * @param arguments the value of each parameter, by slot
+         * @return the value of the subtree
+         */
+        Object evaluate(Object[] arguments);
+    }
+
+    /**
+     * A compiled subtree whose value is always a Double, evaluated without boxing it
+     */
+    @FunctionalInterface
+    private interface DoubleNode extends Node {
+        /**
+         * Evaluates the subtree
+         * @param arguments the value of each parameter, by slot
+         * @return the value of the subtree
+         */
+        double evaluateDouble(Object[] arguments);
+
+        @Override
+        default Object evaluate(Object[] arguments) {
+            return evaluateDouble(arguments);
+        }
+    }
+
+    /**
+     * A subtree whose value was computed while compiling
+     * @param value the value
+     */
+    private record Constant(Object value) implements Node {
+        @Override
+        public Object evaluate(Object[] arguments) {
+            return value;
+        }
+    }
+
+    /**
+     * A subtree whose value was computed while compiling and is a Double
+     * @param value the value
+     */
+    private record DoubleConstant(double value) implements DoubleNode {
+        @Override
+        public double evaluateDouble(Object[] arguments) {
+            return value;
+        }
+    }
+
+    // Marks a parameter missing from the inputs, which is only an error if the variable is evaluated
+    private static final Object UNDEFINED = new Object();
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    // Applies operators the compiler has no node for; the operator methods use no state of the interpreter
+    private static final Interpreter OPERATORS = new Interpreter();
+
+    public final List<String> parameters;
+    private final Node root;
+
+    /**
+     * Constructor.
+     * Compiles the expression
+     * @param expression the syntax tree of the expression
+     * @param parameters the names of the variables the expression refers to, which become the argument slots
+     */
+    CompiledExpression(Expression expression, List<String> parameters) {
+        this.parameters = parameters;
+
+        Map<String, Integer> slots = new HashMap<>();
+        for (int i = 0; i < parameters.size(); i++) slots.put(parameters.get(i), i);
+        this.root = new Compiler(slots).compile(expression);
+    }
+
+    /**
+     * Evaluates the expression
+     * @param arguments the value of each parameter, in the order of parameters
+     * @return the value of the expression
+     * @throws IllegalArgumentException if the number of arguments is not the number of parameters
+     * @throws RuntimeError if the evaluation fails
+     */
+    public Object evaluate(Object... arguments) {
+        if (arguments.length != parameters.size()) {
+            throw new IllegalArgumentException("Expected " + parameters.size() + " arguments but got "
+                    + arguments.length + ".");
+        }
+        Object value = root.evaluate(arguments);
+        return Interpreter.toHost(value);
+    }
+
+    /**
+     * Evaluates the expression with its parameters looked up by name.
+     * A parameter missing from the inputs is only an error if its variable is evaluated
+     * @param inputs the value of each parameter
+     * @return the value of the expression
+     * @throws RuntimeError if the evaluation fails
+     */
+    public Object evaluate(Map<String, ?> inputs) {
+        Object[] arguments = new Object[parameters.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            String name = parameters.get(i);
+            arguments[i] = inputs.containsKey(name) ? inputs.get(name) : UNDEFINED;
+        }
+        return evaluate(arguments);
+    }
+
+    /**
+     * Turns syntax trees into nodes.
+     * Shared subtrees, as a HashConsingExpressionFactory makes, are compiled once and their node shared
+     */
+    private static class Compiler implements Expression.Visitor<Node> {
+        private final Map<String, Integer> slots;
+        private final Map<Expression, Node> compiled = new IdentityHashMap<>();
+
+        /**
+         * Constructor
+         * @param slots the argument slot of each parameter
+         */
+        Compiler(Map<String, Integer> slots) {
+            this.slots = slots;
+        }
+
+        /**
+         * Compiles a subtree
+         * @param expression the subtree
+         * @return the node evaluating it
+         */
+        Node compile(Expression expression) {
+            Node node = compiled.get(expression);
+            if (node == null) {
+                node = expression.accept(this);
+                compiled.put(expression, node);
+            }
+            return node;
+        }
+
+        @Override
+        public Node visit(Expression.Literal expression) {
+            return constant(expression.value);
+        }
+
+        @Override
+        public Node visit(Expression.Grouping expression) {
+            return compile(expression.expression);
+        }
+
+        @Override
+        public Node visit(Expression.Variable expression) {
+            Token name = expression.name;
+            int slot = slots.get(name.lexeme);
+            return arguments -> {
+                Object value = arguments[slot];
+                if (value == UNDEFINED) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+                if (value instanceof Integer || value instanceof Double) return value;
+                if (value instanceof Number) return Numbers.of((Number)value);
+                return value;
+            };
+        }
+
+        @Override
+        public Node visit(Expression.Unary expression) {
+            Token operator = expression.operator;
+            Node right = compile(expression.right);
+
+            Node node = switch (operator.type) {
+                case MINUS -> {
+                    if (right instanceof DoubleNode operand) {
+                        yield (DoubleNode)arguments -> -operand.evaluateDouble(arguments);
+                    }
+                    yield arguments -> {
+                        Object value = right.evaluate(arguments);
+                        if (!Numbers.isNumber(value)) throw new RuntimeError(operator, "Operand must be a number.");
+                        return Numbers.negate(value);
+                    };
+                }
+                case BANG -> arguments -> !Interpreter.isTruthy(right.evaluate(arguments));
+                default -> arguments -> OPERATORS.unary(operator, right.evaluate(arguments));
+            };
+            return fold(node, right);
+        }
+
+        @Override
+        public Node visit(Expression.Binary expression) {
+            Token operator = expression.operator;
+            Node left = compile(expression.left);
+            Node right = compile(expression.right);
+            boolean doubles = left instanceof DoubleNode || right instanceof DoubleNode;
+
+            Node node = switch (operator.type) {
+                case MINUS -> doubles
+                        ? arithmetic(operator, left, right, (a, b) -> a - b, "Operands must be numbers.")
+                        : arguments -> {
+                            Object leftValue = left.evaluate(arguments);
+                            Object rightValue = right.evaluate(arguments);
+                            checkNumbers(operator, leftValue, rightValue, "Operands must be numbers.");
+                            return Numbers.subtract(leftValue, rightValue);
+                        };
+                case STAR -> doubles
+                        ? arithmetic(operator, left, right, (a, b) -> a * b, "Operands must be numbers.")
+                        : arguments -> {
+                            Object leftValue = left.evaluate(arguments);
+                            Object rightValue = right.evaluate(arguments);
+                            checkNumbers(operator, leftValue, rightValue, "Operands must be numbers.");
+                            return Numbers.multiply(leftValue, rightValue);
+                        };
+                // A quotient is always a Double
+                case SLASH -> arithmetic(operator, left, right, (a, b) -> a / b, "Operands must be numbers.");
+                // A Double plus a string is an error, so a Double operand makes the sum a Double
+                case PLUS -> doubles
+                        ? arithmetic(operator, left, right, Double::sum, "Operands must be two numbers or two strings.")
+                        : arguments -> add(operator, left.evaluate(arguments), right.evaluate(arguments));
+                case GREATER -> comparison(operator, right, left, false);
+                case GREATER_EQUAL -> comparison(operator, right, left, true);
+                case LESS -> comparison(operator, left, right, false);
+                case LESS_EQUAL -> comparison(operator, left, right, true);
+                case EQUAL_EQUAL -> equality(left, right, true);
+                case BANG_EQUAL -> equality(left, right, false);
+                default -> arguments -> OPERATORS.binary(operator, left.evaluate(arguments), right.evaluate(arguments));
+            };
+            return fold(node, left, right);
+        }
+
+        @Override
+        public Node visit(Expression.Logical expression) {
+            Node left = compile(expression.left);
+            Node right = compile(expression.right);
+            boolean or = expression.operator.type == TokenType.OR;
+
+            // A constant left operand decides at compile time whether the right one is ever evaluated
+            if (left instanceof Constant || left instanceof DoubleConstant) {
+                Object value = left.evaluate(NO_ARGUMENTS);
+                return Interpreter.isTruthy(value) == or ? left : right;
+            }
+
+            return arguments -> {
+                Object value = left.evaluate(arguments);
+                if (Interpreter.isTruthy(value) == or) return value;
+                return right.evaluate(arguments);
+            };
+        }
+
+        @Override
+        public Node visit(Expression.Sequence expression) {
+            Expression[] expressions = expression.expressions;
+            Node last = null;
+            List<Node> earlier = new ArrayList<>();
+            for (Expression part : expressions) {
+                // Earlier values are dropped, so only the expressions that may fail are worth evaluating
+                if (last != null && !(last instanceof Constant) && !(last instanceof DoubleConstant)) earlier.add(last);
+                last = compile(part);
+            }
+            if (earlier.isEmpty()) return last;
+
+            Node[] effects = earlier.toArray(new Node[0]);
+            Node result = last;
+            return arguments -> {
+                for (Node effect : effects) effect.evaluate(arguments);
+                return result.evaluate(arguments);
+            };
+        }
+
+        @Override
+        public Node visit(Expression.Conditional expression) {
+            Node condition = compile(expression.condition);
+            Node thenBranch = compile(expression.thenBranch);
+            Node elseBranch = compile(expression.elseBranch);
+
+            if (condition instanceof Constant || condition instanceof DoubleConstant) {
+                return Interpreter.isTruthy(condition.evaluate(NO_ARGUMENTS)) ? thenBranch : elseBranch;
+            }
+
+            if (thenBranch instanceof DoubleNode thenDouble && elseBranch instanceof DoubleNode elseDouble) {
+                return (DoubleNode)arguments -> Interpreter.isTruthy(condition.evaluate(arguments))
+                        ? thenDouble.evaluateDouble(arguments)
+                        : elseDouble.evaluateDouble(arguments);
+            }
+            return arguments -> Interpreter.isTruthy(condition.evaluate(arguments))
+                    ? thenBranch.evaluate(arguments)
+                    : elseBranch.evaluate(arguments);
+        }
+
+        /**
+         * Creates the node of an arithmetic operator whose result is always a Double.
+         * Operands that are DoubleNodes are evaluated unboxed, and the others are checked to be numbers
+         * only after both are evaluated, so errors are raised in the same order as the Interpreter's
+         * @param operator the operator
+         * @param left the left operand
+         * @param right the right operand
+         * @param function the arithmetic on the operands' values
+         * @param message the error raised when an operand is not a number
+         * @return the node
+         */
+        private static DoubleNode arithmetic(Token operator, Node left, Node right,
+                                             DoubleBinaryOperator function, String message) {
+            if (left instanceof DoubleNode leftDouble && right instanceof DoubleNode rightDouble) {
+                return arguments -> function.applyAsDouble(
+                        leftDouble.evaluateDouble(arguments), rightDouble.evaluateDouble(arguments));
+            }
+            if (left instanceof DoubleNode leftDouble) {
+                return arguments -> {
+                    double leftValue = leftDouble.evaluateDouble(arguments);
+                    Object rightValue = right.evaluate(arguments);
+                    checkNumbers(operator, 0.0, rightValue, message);
+                    return function.applyAsDouble(leftValue, Numbers.toDouble(rightValue));
+                };
+            }
+            if (right instanceof DoubleNode rightDouble) {
+                return arguments -> {
+                    Object leftValue = left.evaluate(arguments);
+                    double rightValue = rightDouble.evaluateDouble(arguments);
+                    checkNumbers(operator, leftValue, 0.0, message);
+                    return function.applyAsDouble(Numbers.toDouble(leftValue), rightValue);
+                };
+            }
+            return arguments -> {
+                Object leftValue = left.evaluate(arguments);
+                Object rightValue = right.evaluate(arguments);
+                checkNumbers(operator, leftValue, rightValue, message);
+                return function.applyAsDouble(Numbers.toDouble(leftValue), Numbers.toDouble(rightValue));
+            };
+        }
+
+        /**
+         * Creates the node of a comparison, written with the smaller operand on the left
+         * @param operator the operator, where errors are reported
+         * @param smaller the operand that must be the smaller one
+         * @param larger the operand that must be the larger one
+         * @param orEqual whether equal operands satisfy the comparison
+         * @return the node
+         */
+        private static Node comparison(Token operator, Node smaller, Node larger, boolean orEqual) {
+            // Operands are evaluated left to right even when the comparison is written the other way round
+            boolean swapped = operator.type == TokenType.GREATER || operator.type == TokenType.GREATER_EQUAL;
+
+            if (smaller instanceof DoubleNode smallerDouble && larger instanceof DoubleNode largerDouble) {
+                if (swapped) {
+                    return orEqual
+                            ? arguments -> largerDouble.evaluateDouble(arguments) >= smallerDouble.evaluateDouble(arguments)
+                            : arguments -> largerDouble.evaluateDouble(arguments) > smallerDouble.evaluateDouble(arguments);
+                }
+                return orEqual
+                        ? arguments -> smallerDouble.evaluateDouble(arguments) <= largerDouble.evaluateDouble(arguments)
+                        : arguments -> smallerDouble.evaluateDouble(arguments) < largerDouble.evaluateDouble(arguments);
+            }
+
+            Node first = swapped ? larger : smaller;
+            Node second = swapped ? smaller : larger;
+            return arguments -> {
+                Object firstValue = first.evaluate(arguments);
+                Object secondValue = second.evaluate(arguments);
+                checkNumbers(operator, firstValue, secondValue, "Operands must be numbers.");
+                Object smallerValue = swapped ? secondValue : firstValue;
+                Object largerValue = swapped ? firstValue : secondValue;
+                return orEqual
+                        ? Numbers.lessEqual(smallerValue, largerValue)
+                        : Numbers.less(smallerValue, largerValue);
+            };
+        }
+
+        /**
+         * Creates the node of an equality test
+         * @param left the left operand
+         * @param right the right operand
+         * @param equal true for ==, false for !=
+         * @return the node
+         */
+        private static Node equality(Node left, Node right, boolean equal) {
+            if (left instanceof DoubleNode leftDouble && right instanceof DoubleNode rightDouble) {
+                // Matches Double.equals, which the Interpreter uses
+                return arguments -> (Double.doubleToLongBits(leftDouble.evaluateDouble(arguments))
+                        == Double.doubleToLongBits(rightDouble.evaluateDouble(arguments))) == equal;
+            }
+            return arguments -> Interpreter.isEqual(left.evaluate(arguments), right.evaluate(arguments)) == equal;
+        }
+
+        /**
+         * Adds two numbers or joins two strings, as the Interpreter does
+         * @param operator the operator, where errors are reported
+         * @param left the value of the left operand
+         * @param right the value of the right operand
+         * @return the sum or the joined string
+         */
+        private static Object add(Token operator, Object left, Object right) {
+            if (Numbers.isNumber(left) && Numbers.isNumber(right)) return Numbers.add(left, right);
+
+            if (left instanceof CharSequence leftString && right instanceof CharSequence rightString) {
+                if ((long)leftString.length() + rightString.length() > Interpreter.MAX_STRING_LENGTH) {
+                    throw new RuntimeError(operator, "String too long.");
+                }
+                return Rope.concat(leftString, rightString);
+            }
+
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+
+        /**
+         * Ensures both operands of an operator are numbers
+         * @param operator the operator, where errors are reported
+         * @param left the value of the left operand
+         * @param right the value of the right operand
+         * @param message the error raised if either is not a number
+         */
+        private static void checkNumbers(Token operator, Object left, Object right, String message) {
+            if (Numbers.isNumber(left) && Numbers.isNumber(right)) return;
+            throw new RuntimeError(operator, message);
+        }
+
+        /**
+         * Replaces a node whose operands are all constants with its value.
+         * A node that fails is kept, so the error is raised when the expression is evaluated, if ever
+         * @param node the node
+         * @param operands the nodes of its operands
+         * @return the constant, or the node itself
+         */
+        private static Node fold(Node node, Node... operands) {
+            boolean constant = Arrays.stream(operands)
+                    .allMatch(operand -> operand instanceof Constant || operand instanceof DoubleConstant);
+            if (!constant) return node;
+
+            try {
+                return constant(node.evaluate(NO_ARGUMENTS));
+            } catch (RuntimeException e) {
+                return node;
+            }
+        }
+
+        /**
+         * Creates the node of a value known while compiling
+         * @param value the value
+         * @return a DoubleConstant for a Double, a Constant otherwise
+         */
+        private static Node constant(Object value) {
+            if (value instanceof Double) return new DoubleConstant((double)value);
+            return new Constant(value);
+        }
+    }
+}
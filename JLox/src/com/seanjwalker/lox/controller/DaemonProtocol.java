@@ -0,0 +1,82 @@
+package com.seanjwalker.lox.controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Framing shared by the daemon and its client.
+ * A request is one frame holding the source code. A response is the exit status followed by
+ * one frame of standard output and one frame of error output.
+ * Every frame is a 4-byte length followed by that many bytes of UTF-8
+ */
+final class DaemonProtocol {
+    /**
+     * The largest frame accepted, to keep a bad peer from exhausting memory
+     */
+    static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    private DaemonProtocol() {}
+
+    /**
+     * Writes a string as a frame
+     * @param channel the channel to write to
+     * @param text the text to write
+     * @throws IOException if the channel cannot be written to
+     */
+    static void writeFrame(SocketChannel channel, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        buffer.putInt(bytes.length).put(bytes).flip();
+        writeFully(channel, buffer);
+    }
+
+    /**
+     * Reads a frame as a string
+     * @param channel the channel to read from
+     * @return the text of the frame
+     * @throws IOException if the channel cannot be read from or the frame is malformed
+     */
+    static String readFrame(SocketChannel channel) throws IOException {
+        int length = readInt(channel);
+        if (length < 0 || length > MAX_FRAME) throw new IOException("Invalid frame length " + length + ".");
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer);
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a 4-byte integer
+     * @param channel the channel to write to
+     * @param value the integer to write
+     * @throws IOException if the channel cannot be written to
+     */
+    static void writeInt(SocketChannel channel, int value) throws IOException {
+        writeFully(channel, ByteBuffer.allocate(Integer.BYTES).putInt(value).flip());
+    }
+
+    /**
+     * Reads a 4-byte integer
+     * @param channel the channel to read from
+     * @return the integer read
+     * @throws IOException if the channel cannot be read from
+     */
+    static int readInt(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, buffer);
+        return buffer.getInt(0);
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Connection closed mid-frame.");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.view.ErrorReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds errors so they can be reported later, in the order a sequential scan and parse would report them
+ */
+class DeferredErrors extends ErrorReporter {
+    private record Report(int line, String where, String message) {}
+
+    private final List<Report> reports = new ArrayList<>();
+
+    DeferredErrors() {
+        super(null);
+    }
+
+    @Override
+    public void report(int line, String where, String message) {
+        hadError = true;
+        reports.add(new Report(line, where, message));
+    }
+
+    /**
+     * Reports the held errors
+     * @param errorReporter the controller that reports them to the user
+     */
+    void replay(ErrorReporter errorReporter) {
+        for (Report report : reports) {
+            errorReporter.report(report.line(), report.where(), report.message());
+        }
+    }
+}
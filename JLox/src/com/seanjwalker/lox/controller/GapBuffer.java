@@ -0,0 +1,121 @@
+package com.seanjwalker.lox.controller;
+
+import java.util.Objects;
+
+/**
+ * Text that is edited in place, as in an editor.
+ * The characters are held in one array with a gap at the place last edited, so an edit only moves
+ * the characters between it and the previous edit, and edits close together cost little however long the text is
+ */
+class GapBuffer {
+    private static final int MIN_GAP = 64;
+
+    private char[] chars;
+    private int gapStart;
+    private int gapEnd;
+
+    /**
+     * Constructor
+     * @param text the initial text
+     */
+    GapBuffer(String text) {
+        chars = new char[text.length() + MIN_GAP];
+        text.getChars(0, text.length(), chars, 0);
+        gapStart = text.length();
+        gapEnd = chars.length;
+    }
+
+    /**
+     * Gives the length of the text
+     * @return the number of characters
+     */
+    int length() {
+        return chars.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * Replaces part of the text
+     * @param offset the index of the first character replaced
+     * @param removed the number of characters replaced
+     * @param inserted the text that replaces them
+     */
+    void replace(int offset, int removed, String inserted) {
+        Objects.checkFromIndexSize(offset, removed, length());
+        moveGap(offset);
+        gapEnd += removed;
+
+        if (inserted.length() > gapEnd - gapStart) grow(inserted.length());
+        inserted.getChars(0, inserted.length(), chars, gapStart);
+        gapStart += inserted.length();
+    }
+
+    /**
+     * Counts the newlines in part of the text
+     * @param from the index of the first character examined
+     * @param to the index after the last character examined
+     * @return the number of newlines found
+     */
+    int countNewlines(int from, int to) {
+        Objects.checkFromToIndex(from, to, length());
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (chars[i < gapStart ? i : i + gapEnd - gapStart] == '\n') count++;
+        }
+        return count;
+    }
+
+    /**
+     * Copies part of the text out of the buffer
+     * @param from the index of the first character copied
+     * @param to the index after the last character copied
+     * @return the text between the indices
+     */
+    String substring(int from, int to) {
+        Objects.checkFromToIndex(from, to, length());
+        if (to <= gapStart) return new String(chars, from, to - from);
+
+        int gap = gapEnd - gapStart;
+        if (from >= gapStart) return new String(chars, from + gap, to - from);
+
+        char[] text = new char[to - from];
+        System.arraycopy(chars, from, text, 0, gapStart - from);
+        System.arraycopy(chars, gapEnd, text, gapStart - from, to - gapStart);
+        return new String(text);
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+
+    /**
+     * Moves the gap to begin at an index of the text, shifting the characters in between across it
+     * @param index the index of the text the gap is moved to
+     */
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int moved = gapStart - index;
+            System.arraycopy(chars, index, chars, gapEnd - moved, moved);
+            gapStart = index;
+            gapEnd -= moved;
+        } else if (index > gapStart) {
+            int moved = index - gapStart;
+            System.arraycopy(chars, gapEnd, chars, gapStart, moved);
+            gapStart = index;
+            gapEnd += moved;
+        }
+    }
+
+    /**
+     * Enlarges the array so the gap holds at least a number of characters
+     * @param needed the number of characters the gap must hold
+     */
+    private void grow(int needed) {
+        int after = chars.length - gapEnd;
+        char[] grown = new char[Math.max(chars.length * 2, length() + needed + MIN_GAP)];
+        System.arraycopy(chars, 0, grown, 0, gapStart);
+        System.arraycopy(chars, gapEnd, grown, grown.length - after, after);
+        gapEnd = grown.length - after;
+        chars = grown;
+    }
+}
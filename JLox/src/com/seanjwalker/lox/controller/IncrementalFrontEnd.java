@@ -0,0 +1,411 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.ExpressionFactory;
+import com.seanjwalker.lox.model.Token;
+import com.seanjwalker.lox.model.TokenType;
+import com.seanjwalker.lox.view.ErrorReporter;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Scanner and parser for a buffer that is edited a little at a time, as in an editor.
+ * After an edit, scanning starts again from the last token the edit cannot have changed
+ * and stops as soon as a new token begins where an old one did past the edit, since from there on the text is the same.
+ * Parsing reuses every grouping and comma-separated segment of the previous parse that lies outside the new tokens,
+ * so only the ones around the edit are parsed again.
+ * The tokens, syntax tree and errors after every edit are the same as scanning and parsing the whole buffer.
+ * The text and the tokens are each kept in a gap buffer at the place last edited. Tokens past the gap count
+ * their offsets and lines back from the end of the text, so an edit moves them, line breaks included,
+ * without touching them, and the subtrees holding them are reused as they are.
+ * An edit costs time proportional to its size, to its distance from the previous edit
+ * and to the number of top-level segments.
+ * The tokens of a syntax tree give the line they are on in the buffer as it is now, not as it was when it was parsed
+ */
+public class IncrementalFrontEnd {
+    /**
+     * A scanning error, held so it can be reported again after later edits
+     * @param offset where the lexeme with the error begins
+     * @param line the line of the error
+     * @param where the location of the error (user-friendly)
+     * @param message the error message
+     */
+    private record ScanError(int offset, int line, String where, String message) {}
+
+    /**
+     * The tokens scanned after an edit
+     * @param tokens the new tokens
+     * @param errors the errors found while scanning them
+     * @param resync the index of the first old token kept after them
+     */
+    private record Rescan(List<EditedToken> tokens, List<ScanError> errors, int resync) {}
+
+    // A token depends on the character after it, and a number on the one after that as well
+    private static final int LOOKAHEAD = 2;
+
+    // The least text scanned past the start of an edit before looking for where the old tokens resume
+    private static final int MIN_WINDOW = 256;
+
+    private static final int MIN_GAP = 64;
+
+    private final ErrorReporter errorReporter;
+    private final ExpressionFactory factory = new ExpressionFactory();
+    private final SubtreeCache cache = new SubtreeCache();
+
+    private final GapBuffer text = new GapBuffer("");
+    private int newlines = 0;
+    private String source = "";
+
+    private EditedToken[] tokens = new EditedToken[MIN_GAP];
+    private int gapStart = 0;
+    private int gapEnd = tokens.length;
+    private final List<Token> tokenList = new AbstractList<>() {
+        @Override
+        public Token get(int index) {
+            return token(Objects.checkIndex(index, size()));
+        }
+
+        @Override
+        public int size() {
+            return tokenCount();
+        }
+    };
+
+    private List<ScanError> scanErrors = new ArrayList<>();
+    private Expression expression;
+
+    /**
+     * Constructor.
+     * Scans and parses the whole buffer
+     * @param source the initial contents of the buffer
+     * @param errorReporter the controller to handle errors
+     */
+    public IncrementalFrontEnd(String source, ErrorReporter errorReporter) {
+        this.errorReporter = errorReporter;
+        update(0, 0, source);
+    }
+
+    /**
+     * Applies an edit to the buffer and brings the tokens and syntax tree up to date.
+     * The errors of the whole buffer are reported again, and the error flag reflects only the edited buffer
+     * @param offset the index of the first character replaced
+     * @param removed the number of characters replaced
+     * @param inserted the text that replaces them
+     * @return the syntax tree of the whole buffer, or null if it contains errors
+     */
+    public Expression edit(int offset, int removed, String inserted) {
+        Objects.checkFromIndexSize(offset, removed, text.length());
+        return update(offset, removed, inserted);
+    }
+
+    /**
+     * Gives the current contents of the buffer.
+     * The text is copied out of the buffer the first time it is asked for after an edit
+     * @return the buffer's text
+     */
+    public String source() {
+        if (source == null) source = text.toString();
+        return source;
+    }
+
+    /**
+     * Gives the tokens of the buffer as it is now
+     * @return the tokens, ending with EOF
+     */
+    public List<Token> tokens() {
+        return tokenList;
+    }
+
+    /**
+     * Gives the syntax tree of the buffer as it is now
+     * @return the syntax tree, or null if the buffer contains errors
+     */
+    public Expression expression() {
+        return expression;
+    }
+
+    /**
+     * Applies an edit whose range has been checked
+     * @param offset the index of the first character replaced
+     * @param removed the number of characters replaced
+     * @param inserted the text that replaces them
+     * @return the syntax tree of the whole buffer, or null if it contains errors
+     */
+    private Expression update(int offset, int removed, String inserted) {
+        int first = firstAffected(offset);
+        int begin = first == 0 ? 0 : token(first - 1).end();
+        int line = first == 0 ? 1 : token(first - 1).line();
+
+        // The tokens from the first affected one on count from the end, so the edit moves those past it
+        moveGap(first);
+        int shift = inserted.length() - removed;
+        int lineShift = countNewlines(inserted) - text.countNewlines(offset, offset + removed);
+        text.replace(offset, removed, inserted);
+        newlines += lineShift;
+        source = null;
+
+        int editEnd = offset + inserted.length();
+        Rescan rescan = null;
+        for (long window = Math.max(MIN_WINDOW, 2L * (editEnd - begin)); rescan == null; window *= 2) {
+            rescan = rescan(first, begin, (int)Math.min(text.length(), begin + window), line, editEnd);
+        }
+
+        int resync = rescan.resync();
+        int resyncOffset = resync < tokenCount() ? token(resync).start() - shift : Integer.MAX_VALUE;
+        replaceErrors(begin, resyncOffset, rescan.errors(), shift, lineShift);
+
+        // The gap is at the first affected token, so the tokens replaced are the first ones after it
+        for (int i = gapEnd; i < gapEnd + resync - first; i++) tokens[i] = null;
+        gapEnd += resync - first;
+        for (EditedToken token : rescan.tokens()) insert(token);
+        cache.edit(first, resync, first + rescan.tokens().size());
+
+        errorReporter.hadError = false;
+        for (ScanError error : scanErrors) errorReporter.report(error.line(), error.where(), error.message());
+
+        expression = new Parser(tokenList, errorReporter, factory, cache).parse();
+        if (errorReporter.hadError) expression = null;
+        return expression;
+    }
+
+    /**
+     * Scans the edited text until the new tokens line up with the old ones again.
+     * Only a window of the text is copied out to be scanned. If the new tokens do not line up with the old ones
+     * before the end of the window, the window is too small and nothing is scanned
+     * @param first the index of the first token the edit may change
+     * @param begin where scanning starts
+     * @param windowEnd the index after the last character scanned
+     * @param line the line number at begin
+     * @param editEnd the index after the last character inserted
+     * @return the new tokens, or null if the window is too small
+     */
+    private Rescan rescan(int first, int begin, int windowEnd, int line, int editEnd) {
+        boolean whole = windowEnd == text.length();
+        String window = text.substring(begin, windowEnd);
+        ErrorRecorder recorder = new ErrorRecorder(begin);
+        Scanner scanner = new Scanner(window, 0, window.length(), line, recorder);
+        recorder.scanner = scanner;
+
+        List<EditedToken> scanned = new ArrayList<>();
+        int oldIndex = first;
+        int oldSize = tokenCount();
+        while (true) {
+            Token token = scanner.nextToken();
+            int start = begin + scanner.lexemeStart();
+            int end = begin + scanner.lexemeEnd();
+
+            // A token this close to the end of the window may continue past it, or scan differently
+            if (!whole && (token.type == TokenType.EOF || end + LOOKAHEAD > windowEnd)) return null;
+
+            if (start >= editEnd) {
+                while (oldIndex < oldSize && token(oldIndex).start() < start) oldIndex++;
+                if (oldIndex < oldSize && token(oldIndex).start() == start) {
+                    return new Rescan(scanned, recorder.errors, oldIndex);
+                }
+            }
+
+            scanned.add(new EditedToken(token, start, end));
+            if (token.type == TokenType.EOF) return new Rescan(scanned, recorder.errors, oldSize);
+        }
+    }
+
+    /**
+     * Binary search for the first token an edit may change
+     * @param offset the index of the first character edited
+     * @return the index of the first token that ends too close to the edit to be unaffected
+     */
+    private int firstAffected(int offset) {
+        int low = 0;
+        int high = tokenCount();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (token(middle).end() + LOOKAHEAD <= offset) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Gives the number of tokens in the buffer
+     * @return the number of tokens, including EOF
+     */
+    private int tokenCount() {
+        return tokens.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * Gives a token of the buffer
+     * @param index the index of the token
+     * @return the token
+     */
+    private EditedToken token(int index) {
+        return tokens[index < gapStart ? index : index + gapEnd - gapStart];
+    }
+
+    /**
+     * Moves the gap of the token buffer to before a token.
+     * The tokens it passes over switch between counting from the start and from the end of the text
+     * @param index the index of the token the gap is moved before
+     */
+    private void moveGap(int index) {
+        while (gapStart > index) {
+            EditedToken token = tokens[--gapStart];
+            tokens[gapStart] = null;
+            token.countFromEnd();
+            tokens[--gapEnd] = token;
+        }
+        while (gapStart < index) {
+            EditedToken token = tokens[gapEnd];
+            tokens[gapEnd++] = null;
+            token.countFromStart();
+            tokens[gapStart++] = token;
+        }
+    }
+
+    /**
+     * Adds a newly scanned token at the gap
+     * @param token the token
+     */
+    private void insert(EditedToken token) {
+        if (gapStart == gapEnd) {
+            int after = tokens.length - gapEnd;
+            EditedToken[] grown = new EditedToken[tokens.length * 2 + MIN_GAP];
+            System.arraycopy(tokens, 0, grown, 0, gapStart);
+            System.arraycopy(tokens, gapEnd, grown, grown.length - after, after);
+            gapEnd = grown.length - after;
+            tokens = grown;
+        }
+        tokens[gapStart++] = token;
+    }
+
+    /**
+     * Puts the errors found while scanning in place of the ones from the part of the buffer scanned again
+     * @param begin where scanning started
+     * @param resyncOffset where the first token kept after the edit began before it
+     * @param found the errors found while scanning
+     * @param shift how many characters the edit added
+     * @param lineShift how many lines the edit added
+     */
+    private void replaceErrors(int begin, int resyncOffset, List<ScanError> found, int shift, int lineShift) {
+        List<ScanError> errors = new ArrayList<>();
+        for (ScanError error : scanErrors) {
+            if (error.offset() < begin) errors.add(error);
+        }
+        errors.addAll(found);
+        for (ScanError error : scanErrors) {
+            if (error.offset() >= resyncOffset) {
+                errors.add(new ScanError(error.offset() + shift, error.line() + lineShift,
+                        error.where(), error.message()));
+            }
+        }
+        scanErrors = errors;
+    }
+
+    /**
+     * Counts the newlines in a string
+     * @param text the string to search
+     * @return the number of newlines found
+     */
+    private static int countNewlines(String text) {
+        int count = 0;
+        int newline = text.indexOf('\n');
+        while (newline != -1) {
+            count++;
+            newline = text.indexOf('\n', newline + 1);
+        }
+        return count;
+    }
+
+    /**
+     * A token of the buffer, which keeps track of where it is as the text before it is edited.
+     * Before the gap its offsets and line count from the start of the text, and past the gap from the end,
+     * so the same token, and every subtree holding it, stays right after edits before it
+     */
+    private final class EditedToken extends Token {
+        private int start;
+        private int end;
+        private int line;
+        private boolean fromEnd = false;
+
+        /**
+         * Constructor
+         * @param token the token as scanned
+         * @param start where the token begins in the text
+         * @param end where the token ends in the text
+         */
+        EditedToken(Token token, int start, int end) {
+            super(token.type, token.lexeme, token.literal, token.line());
+            this.start = start;
+            this.end = end;
+            this.line = token.line();
+        }
+
+        /**
+         * Gives where the token begins
+         * @return the index of its first character in the text
+         */
+        int start() {
+            return fromEnd ? start + text.length() : start;
+        }
+
+        /**
+         * Gives where the token ends
+         * @return the index after its last character in the text
+         */
+        int end() {
+            return fromEnd ? end + text.length() : end;
+        }
+
+        @Override
+        public int line() {
+            return fromEnd ? line + newlines : line;
+        }
+
+        /**
+         * Switches the token to counting from the end of the text, as it moves past the gap
+         */
+        void countFromEnd() {
+            start -= text.length();
+            end -= text.length();
+            line -= newlines;
+            fromEnd = true;
+        }
+
+        /**
+         * Switches the token to counting from the start of the text, as it moves before the gap
+         */
+        void countFromStart() {
+            start += text.length();
+            end += text.length();
+            line += newlines;
+            fromEnd = false;
+        }
+    }
+
+    /**
+     * Records scanning errors with where they occurred instead of reporting them
+     */
+    private static class ErrorRecorder extends ErrorReporter {
+        private final List<ScanError> errors = new ArrayList<>();
+        private final int base;
+        private Scanner scanner;
+
+        /**
+         * Constructor
+         * @param base the index in the text of the first character scanned
+         */
+        ErrorRecorder(int base) {
+            super(null);
+            this.base = base;
+        }
+
+        @Override
+        public void report(int line, String where, String message) {
+            hadError = true;
+            errors.add(new ScanError(base + scanner.lexemeStart(), line, where, message));
+        }
+    }
+}
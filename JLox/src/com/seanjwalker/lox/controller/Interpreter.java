@@ -1,8 +1,66 @@
 package com.seanjwalker.lox.controller;
 
 import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.model.Numbers;
+import com.seanjwalker.lox.model.Rope;
+import com.seanjwalker.lox.model.Token;
+import com.seanjwalker.lox.model.TokenType;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
 
 public class Interpreter implements Expression.Visitor<Object> {
+    static final int MAX_STRING_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final Map<String, ?> inputs;
+    private final Budget budget;
+    private final int checkInterval;
+    private int metered = 0;
+    private long evaluated = 0;
+
+    /**
+     * Constructor for expressions without inputs
+     */
+    public Interpreter() {
+        this(Map.of());
+    }
+
+    /**
+     * Constructor
+     * @param inputs the values of the variables the expression may refer to
+     */
+    public Interpreter(Map<String, ?> inputs) {
+        this(inputs, null);
+    }
+
+    /**
+     * Constructor for an evaluation with limited resources
+     * @param inputs the values of the variables the expression may refer to
+     * @param budget the limits the evaluation must stay within, or null for none
+     */
+    public Interpreter(Map<String, ?> inputs, Budget budget) {
+        this.inputs = inputs;
+        this.budget = budget;
+        this.checkInterval = budget == null ? Integer.MAX_VALUE : budget.checkInterval();
+    }
+
+    /**
+     * Evaluates a complete expression
+     * @param expression the syntax tree to evaluate
+     * @return the value of the expression
+     */
+    public Object interpret(Expression expression) {
+        try {
+            Object value = evaluate(expression);
+            settle(expression);
+            return value;
+        } finally {
+            recordEvaluated();
+        }
+    }
+
     /**
      * Evaluates a literal expression via the Visitor Pattern.
      * This is the same as the value of the literal
@@ -25,6 +83,25 @@ public class Interpreter implements Expression.Visitor<Object> {
         return evaluate(expression.expression);
     }
 
+    /**
+     * Evaluates a variable via the Visitor Pattern.
+     * This is the value supplied for the input of that name.
+     * Numbers supplied by the host may be of any Number type and are converted to Lox numbers
+     * @param expression the variable expression visited
+     * @return the value of the input
+     */
+    @Override
+    public Object visit(Expression.Variable expression) {
+        String name = expression.name.lexeme;
+        if (!inputs.containsKey(name)) {
+            throw new RuntimeError(expression.name, "Undefined variable '" + name + "'.");
+        }
+
+        Object value = inputs.get(name);
+        if (value instanceof Number) return Numbers.of((Number)value);
+        return value;
+    }
+
     /**
      * Evaluates a unary expression via the Visitor Pattern
      * @param expression the unary expression visited
@@ -32,11 +109,81 @@ public class Interpreter implements Expression.Visitor<Object> {
      */
     @Override
     public Object visit(Expression.Unary expression) {
+        return unary(expression.operator, evaluate(expression.right));
+    }
+
+    /**
+     * Evaluates a binary expression via the Visitor Pattern
+     * @param expression the binary expression visited
+     * @return the evaluation of the expression
+     */
+    @Override
+    public Object visit(Expression.Binary expression) {
+        Object left = evaluate(expression.left);
         Object right = evaluate(expression.right);
 
-        switch (expression.operator.type) {
+        return binary(expression.operator, left, right);
+    }
+
+    /**
+     * Evaluates a logical expression via the Visitor Pattern.
+     * The right operand is only evaluated if the left one does not decide the result,
+     * and the result is whichever operand decided it, not a boolean
+     * @param expression the logical expression visited
+     * @return the evaluation of the expression
+     */
+    @Override
+    public Object visit(Expression.Logical expression) {
+        Object left = evaluate(expression.left);
+
+        if (expression.operator.type == TokenType.OR) {
+            if (isTruthy(left)) return left;
+        } else {
+            if (!isTruthy(left)) return left;
+        }
+
+        return evaluate(expression.right);
+    }
+
+    /**
+     * Evaluates a conditional expression via the Visitor Pattern.
+     * Only the branch chosen by the condition is evaluated
+     * @param expression the conditional expression visited
+     * @return the evaluation of the chosen branch
+     */
+    @Override
+    public Object visit(Expression.Conditional expression) {
+        if (isTruthy(evaluate(expression.condition))) return evaluate(expression.thenBranch);
+        return evaluate(expression.elseBranch);
+    }
+
+    /**
+     * Evaluates a sequence expression via the Visitor Pattern.
+     * The expressions are evaluated in order in one loop, and each value but the last is dropped at once
+     * @param expression the sequence expression visited
+     * @return the evaluation of the last expression
+     */
+    @Override
+    public Object visit(Expression.Sequence expression) {
+        Expression[] expressions = expression.expressions;
+        int last = expressions.length - 1;
+        for (int i = 0; i < last; i++) {
+            evaluate(expressions[i]);
+        }
+        return evaluate(expressions[last]);
+    }
+
+    /**
+     * Applies a unary operator to an evaluated operand
+     * @param operator the operator to apply
+     * @param right the value of the operand
+     * @return the result of the operation
+     */
+    Object unary(Token operator, Object right) {
+        switch (operator.type) {
             case MINUS -> {
-                return -(double)right;
+                checkNumberOperand(operator, right);
+                return Numbers.negate(right);
             }
             case BANG -> {
                 return !isTruthy(right);
@@ -47,61 +194,125 @@ public class Interpreter implements Expression.Visitor<Object> {
     }
 
     /**
-     * Evaluates a binary expression via the Visitor Pattern
-     * @param expression the binary expression visited
-     * @return the evaluation of the expression
+     * Applies a binary operator to evaluated operands
+     * @param operator the operator to apply
+     * @param left the value of the left operand
+     * @param right the value of the right operand
+     * @return the result of the operation
      */
-    @Override
-    public Object visit(Expression.Binary expression) {
-        Object left = evaluate(expression.left);
-        Object right = evaluate(expression.right);
-
-        switch (expression.operator.type) {
+    Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case MINUS -> {
-                return (double)left - (double)right;
+                checkNumberOperands(operator, left, right);
+                return Numbers.subtract(left, right);
             }
             case PLUS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
+                if (Numbers.isNumber(left) && Numbers.isNumber(right)) {
+                    return Numbers.add(left, right);
                 }
 
-                if (left instanceof String && right instanceof String) {
-                    return left + (String)right;
+                // Strings are joined as ropes, so a chain of concatenations copies each character once
+                if (left instanceof CharSequence && right instanceof CharSequence) {
+                    CharSequence leftString = (CharSequence)left;
+                    CharSequence rightString = (CharSequence)right;
+                    if ((long)leftString.length() + rightString.length() > MAX_STRING_LENGTH) {
+                        throw new RuntimeError(operator, "String too long.");
+                    }
+                    return Rope.concat(leftString, rightString);
                 }
+
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
             }
             case SLASH -> {
-                return (double)left / (double)right;
+                checkNumberOperands(operator, left, right);
+                return Numbers.divide(left, right);
             }
             case STAR -> {
-                return (double)left * (double)right;
+                checkNumberOperands(operator, left, right);
+                return Numbers.multiply(left, right);
             }
             case GREATER -> {
-                return (double)left > (double)right;
+                checkNumberOperands(operator, left, right);
+                return Numbers.less(right, left);
             }
             case GREATER_EQUAL -> {
-                return (double)left >= (double)right;
+                checkNumberOperands(operator, left, right);
+                return Numbers.lessEqual(right, left);
             }
             case LESS -> {
-                return (double)left < (double)right;
+                checkNumberOperands(operator, left, right);
+                return Numbers.less(left, right);
             }
             case LESS_EQUAL -> {
-                return (double)left <= (double)right;
+                checkNumberOperands(operator, left, right);
+                return Numbers.lessEqual(left, right);
             }
             case BANG_EQUAL -> {
                 return !isEqual(left, right);
             }
+            case EQUAL_EQUAL -> {
+                return isEqual(left, right);
+            }
         }
 
-        throw new IllegalStateException(expression.operator.lexeme
+        throw new IllegalStateException(operator.lexeme
                 + " is not a valid operator for a binary expression");
     }
 
+    /**
+     * Converts a value to the text Lox shows for it
+     * @param value the value to convert
+     * @return the value as a string
+     */
+    public String stringify(Object value) {
+        if (value == null) return "nil";
+
+        // Integers are only a faster way to hold some doubles, so they print as the double they stand for
+        if (Numbers.isNumber(value)) return Double.toString(Numbers.toDouble(value));
+        return value.toString();
+    }
+
+    /**
+     * Converts a value to what code outside the interpreter is given for it,
+     * which sees every number as a Double and every string as a String
+     * @param value the value to convert
+     * @return the value as a host sees it
+     */
+    static Object toHost(Object value) {
+        if (value instanceof Rope) return value.toString();
+        if (value instanceof Integer) return Numbers.toDouble(value);
+        return value;
+    }
+
+    /**
+     * Ensures the operand of a unary operator is a number
+     * @param operator the operator applied to the operand
+     * @param operand the evaluated operand
+     * @throws RuntimeError if the operand is not a number
+     */
+    private void checkNumberOperand(Token operator, Object operand) {
+        if (Numbers.isNumber(operand)) return;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    /**
+     * Ensures both operands of a binary operator are numbers
+     * @param operator the operator applied to the operands
+     * @param left the evaluated left operand
+     * @param right the evaluated right operand
+     * @throws RuntimeError if either operand is not a number
+     */
+    private void checkNumberOperands(Token operator, Object left, Object right) {
+        if (Numbers.isNumber(left) && Numbers.isNumber(right)) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
     /**
      * Determines whether an object is truthy in Lox
      * @param object the object to evaluate
      * @return true if the object is truthy, false if it's falsey
      */
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
@@ -113,10 +324,18 @@ public class Interpreter implements Expression.Visitor<Object> {
      * @param object2 the second object to compare
      * @return if the objects are equal or both null
      */
-    private boolean isEqual(Object object1, Object object2) {
+    static boolean isEqual(Object object1, Object object2) {
         if (object1 == null && object2 == null) return true;
         if (object1 == null) return false;
 
+        // An Integer and a Double with the same value are the same Lox number
+        if (Numbers.isNumber(object1) && Numbers.isNumber(object2)) return Numbers.equal(object1, object2);
+
+        // A rope and a String with the same text are the same Lox string
+        if (object1 instanceof CharSequence && object2 instanceof CharSequence) {
+            return object1.toString().equals(object2.toString());
+        }
+
         return object1.equals(object2);
     }
 
@@ -125,7 +344,80 @@ public class Interpreter implements Expression.Visitor<Object> {
      * @param expression the expression to evaluate
      * @return the evaluation of the expression
      */
-    private Object evaluate(Expression expression) {
+    Object evaluate(Expression expression) {
+        evaluated++;
+        if (budget != null && ++metered >= checkInterval) meter(expression);
         return expression.accept(this);
     }
+
+    /**
+     * Adds the nodes evaluated so far to the registry's count.
+     * Nodes are counted locally and added once per evaluation, so counting costs one increment per node
+     */
+    void recordEvaluated() {
+        Metrics.nodesEvaluated.add(evaluated);
+        evaluated = 0;
+    }
+
+    /**
+     * Charges the nodes evaluated since the last charge to the budget
+     * @param expression the expression about to be evaluated, which the error is reported in
+     * @throws BudgetExceededError if the budget has run out
+     */
+    private void meter(Expression expression) {
+        int nodes = metered;
+        metered = 0;
+        budget.charge(nodes, () -> locate(expression));
+    }
+
+    /**
+     * Charges the nodes evaluated since the last charge once a subtree has been evaluated,
+     * so an evaluation that ends between checks still pays for all of its work
+     * @param expression the subtree that was evaluated
+     * @throws BudgetExceededError if the budget has run out
+     */
+    void settle(Expression expression) {
+        if (budget == null || metered == 0) return;
+
+        int nodes = metered;
+        metered = 0;
+        budget.charge(nodes, () -> locate(expression));
+    }
+
+    /**
+     * Gives the token of a node, if it has one
+     * @param expression the node
+     * @return its operator or name, or null for nodes without a token
+     */
+    private static Token tokenOf(Expression expression) {
+        if (expression instanceof Expression.Binary binary) return binary.operator;
+        if (expression instanceof Expression.Logical logical) return logical.operator;
+        if (expression instanceof Expression.Conditional conditional) return conditional.operator;
+        if (expression instanceof Expression.Unary unary) return unary.operator;
+        if (expression instanceof Expression.Variable variable) return variable.name;
+        return null;
+    }
+
+    /**
+     * Finds a token to report an error in a subtree at, preferring the last one evaluated
+     * @param expression the subtree
+     * @return the token of the last node with one, or an end of file token on line 1 if no node has one
+     */
+    private static Token locate(Expression expression) {
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            Expression next = pending.pop();
+            Token token = tokenOf(next);
+            if (token != null) return token;
+
+            if (next instanceof Expression.Grouping grouping) {
+                pending.push(grouping.expression);
+            } else if (next instanceof Expression.Sequence sequence) {
+                // Pushed in order, so the last expression of the sequence is searched first
+                for (Expression part : sequence.expressions) pending.push(part);
+            }
+        }
+        return new Token(TokenType.EOF, "", null, 1);
+    }
 }
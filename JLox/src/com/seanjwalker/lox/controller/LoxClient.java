@@ -0,0 +1,48 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.view.OutputPrinter;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Thin client that hands scripts to a running LoxDaemon instead of interpreting them itself
+ */
+public class LoxClient {
+    private final Path socketPath;
+    private final OutputPrinter outputPrinter;
+
+    /**
+     * Constructor
+     * @param socketPath where the daemon's socket is bound
+     * @param outputPrinter where the daemon's output is printed
+     */
+    public LoxClient(Path socketPath, OutputPrinter outputPrinter) {
+        this.socketPath = socketPath;
+        this.outputPrinter = outputPrinter;
+    }
+
+    /**
+     * Sends a script to the daemon and prints what it produced
+     * @param source the source code
+     * @return the exit status the script would have had when run locally
+     * @throws IOException if the daemon cannot be reached
+     */
+    public int run(String source) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+            DaemonProtocol.writeFrame(channel, source);
+
+            int status = DaemonProtocol.readInt(channel);
+            String output = DaemonProtocol.readFrame(channel);
+            String errorOutput = DaemonProtocol.readFrame(channel);
+
+            if (!output.isEmpty()) outputPrinter.print(output);
+            if (!errorOutput.isEmpty()) outputPrinter.printError(errorOutput.stripTrailing());
+            return status;
+        }
+    }
+}
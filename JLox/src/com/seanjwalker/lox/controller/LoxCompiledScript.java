@@ -0,0 +1,60 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.Set;
+
+/**
+ * A Lox script that has already been scanned and parsed.
+ * The syntax tree is never modified, so one instance may be evaluated concurrently
+ */
+class LoxCompiledScript extends CompiledScript {
+    private final LoxScriptEngine engine;
+    private final Expression expression;
+    private final Set<Expression> sharedNodes;
+
+    /**
+     * Constructor
+     * @param engine the engine that compiled the script
+     * @param expression the syntax tree of the script
+     * @param sharedNodes the nodes that appear more than once in the syntax tree
+     */
+    LoxCompiledScript(LoxScriptEngine engine, Expression expression, Set<Expression> sharedNodes) {
+        this.engine = engine;
+        this.expression = expression;
+        this.sharedNodes = sharedNodes;
+    }
+
+    /**
+     * Evaluates the script with a fresh interpreter.
+     * Variables are read from the engine-scope bindings of the context
+     * @param context the context of the evaluation
+     * @return the value of the script
+     * @throws ScriptException if the script fails while running
+     */
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        try {
+            Bindings inputs = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            Interpreter interpreter = sharedNodes.isEmpty()
+                    ? new Interpreter(inputs)
+                    : new MemoizingInterpreter(inputs, sharedNodes);
+            Object value = interpreter.interpret(expression);
+
+            // Hosts expect a String and a Double, not the rope and Integer the interpreter uses internally
+            return Interpreter.toHost(value);
+        } catch (RuntimeException e) {
+            throw (ScriptException) new ScriptException(e.getMessage()).initCause(e);
+        }
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+}
@@ -0,0 +1,89 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.view.ErrorReporter;
+import com.seanjwalker.lox.view.OutputPrinter;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a warm interpreter running behind a Unix domain socket.
+ * Each connection carries one script and is handled on its own virtual thread,
+ * going through the same front end as AppController.run.
+ * Parsed scripts are kept in a cache shared by every connection, so a script sent again is not parsed again
+ */
+public class LoxDaemon {
+    private final Path socketPath;
+    private final OutputPrinter outputPrinter;
+    private final ProgramCache programCache = new ProgramCache("daemon", ProgramCache.DEFAULT_CAPACITY);
+
+    /**
+     * Constructor
+     * @param socketPath where the socket is bound
+     * @param outputPrinter where problems with the daemon itself are reported
+     */
+    public LoxDaemon(Path socketPath, OutputPrinter outputPrinter) {
+        this.socketPath = socketPath;
+        this.outputPrinter = outputPrinter;
+    }
+
+    /**
+     * Accepts connections until the process is stopped
+     * @throws IOException if the socket cannot be bound or accepting fails
+     */
+    public void serve() throws IOException {
+        Files.deleteIfExists(socketPath);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            socketPath.toFile().deleteOnExit();
+
+            while (server.isOpen()) {
+                SocketChannel client = server.accept();
+                workers.submit(() -> handle(client));
+            }
+        }
+    }
+
+    /**
+     * Runs the script sent over one connection and writes back its output
+     * @param client the connection to serve
+     */
+    private void handle(SocketChannel client) {
+        try (client) {
+            String source = DaemonProtocol.readFrame(client);
+
+            StringBuilder output = new StringBuilder();
+            StringBuilder errorOutput = new StringBuilder();
+            OutputPrinter printer = new OutputPrinter(output, errorOutput);
+            ErrorReporter errorReporter = new ErrorReporter(printer);
+            AppController appController = new AppController(printer, errorReporter);
+            appController.setProgramCache(programCache);
+
+            int status = 0;
+            try {
+                appController.run(source);
+                if (errorReporter.hadError) status = 65;
+                else if (errorReporter.hadRuntimeError) status = 70;
+            } catch (Throwable e) {
+                // Whatever goes wrong with one script, such as a stack overflow, is that client's failure alone
+                status = 70;
+                printer.printError(e);
+            }
+
+            DaemonProtocol.writeInt(client, status);
+            DaemonProtocol.writeFrame(client, output.toString());
+            DaemonProtocol.writeFrame(client, errorOutput.toString());
+        } catch (IOException e) {
+            outputPrinter.printError(e);
+        }
+    }
+}
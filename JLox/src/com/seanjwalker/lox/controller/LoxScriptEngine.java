@@ -0,0 +1,131 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.HashConsingExpressionFactory;
+import com.seanjwalker.lox.view.ErrorReporter;
+import com.seanjwalker.lox.view.OutputPrinter;
+
+import javax.script.*;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JSR-223 engine for Lox.
+ * Scripts are scanned and parsed once by compile(), and the resulting tree can be evaluated any number
+ * of times, from any number of threads.
+ * Parsed scripts are also cached by the engine factory, so compiling or evaluating the same source again,
+ * from any engine the factory created, does not parse it again
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final LoxScriptEngineFactory factory;
+
+    /**
+     * Constructor
+     */
+    public LoxScriptEngine() {
+        this(new LoxScriptEngineFactory());
+    }
+
+    /**
+     * Constructor
+     * @param factory the factory that created the engine
+     */
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Evaluates a script
+     * @param script the Lox source code
+     * @param context the context of the evaluation
+     * @return the value of the script
+     * @throws ScriptException if the script cannot be parsed or fails while running
+     */
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    /**
+     * Evaluates a script read from a Reader
+     * @param reader the source of the Lox code
+     * @param context the context of the evaluation
+     * @return the value of the script
+     * @throws ScriptException if the script cannot be read, parsed, or fails while running
+     */
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Scans and parses a script without running it.
+     * Repeated subtrees are parsed into one shared node so they are evaluated once per evaluation
+     * @param script the Lox source code
+     * @return the parsed script, ready to be evaluated
+     * @throws ScriptException if the script contains errors
+     */
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        Program program = script.length() <= ProgramCache.MAX_SOURCE_LENGTH
+                ? factory.programCache.get(script, LoxScriptEngine::parse)
+                : parse(script);
+
+        if (program.hadError()) {
+            StringBuilder errors = new StringBuilder();
+            program.errors().replay(new ErrorReporter(new OutputPrinter(errors, errors)));
+            throw new ScriptException(errors.toString().trim());
+        }
+
+        return new LoxCompiledScript(this, program.expression(), program.sharedNodes());
+    }
+
+    /**
+     * Scans and parses a script into a hash-consed program
+     * @param script the Lox source code
+     * @return the program
+     */
+    private static Program parse(String script) {
+        return Program.parse(script, new HashConsingExpressionFactory(), false);
+    }
+
+    /**
+     * Scans and parses a script read from a Reader without running it
+     * @param reader the source of the Lox code
+     * @return the parsed script, ready to be evaluated
+     * @throws ScriptException if the script cannot be read or contains errors
+     */
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        return compile(read(reader));
+    }
+
+    /**
+     * Reads all remaining characters from a Reader
+     * @param reader the reader to drain
+     * @return the characters read
+     * @throws ScriptException if the reader fails
+     */
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            throw (ScriptException) new ScriptException("Script cannot be read.").initCause(e);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.seanjwalker.lox.controller;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.List;
+
+/**
+ * Factory describing the Lox scripting engine to javax.script.
+ * Registered through META-INF/services so ScriptEngineManager can discover it
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+    private static final List<String> NAMES = List.of("lox", "Lox", "jlox");
+    private static final List<String> EXTENSIONS = List.of("lox");
+    private static final List<String> MIME_TYPES = List.of("application/x-lox", "text/x-lox");
+
+    /**
+     * The scripts parsed by every engine this factory created
+     */
+    final ProgramCache programCache = new ProgramCache("script_engine", ProgramCache.DEFAULT_CAPACITY);
+
+    @Override
+    public String getEngineName() {
+        return "JLox";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<String> getNames() {
+        return NAMES;
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1.0";
+    }
+
+    /**
+     * Provides the values of the standard engine parameters.
+     * Compiled scripts are immutable syntax trees and every evaluation gets its own interpreter,
+     * so the engine holds no state between evaluations
+     * @param key the name of the parameter
+     * @return the value of the parameter, or null if it is unknown
+     */
+    @Override
+    public Object getParameter(String key) {
+        return switch (key) {
+            case ScriptEngine.ENGINE -> getEngineName();
+            case ScriptEngine.ENGINE_VERSION -> getEngineVersion();
+            case ScriptEngine.NAME -> NAMES.get(0);
+            case ScriptEngine.LANGUAGE -> getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION -> getLanguageVersion();
+            case "THREADING" -> "STATELESS";
+            default -> null;
+        };
+    }
+
+    /**
+     * Not supported, as Lox has no objects or calls
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public String getMethodCallSyntax(String object, String method, String... args) {
+        throw new UnsupportedOperationException("Lox has no method calls.");
+    }
+
+    /**
+     * Gives a script that displays an expression.
+     * The value of a script is what the engine returns, so the expression displays itself
+     * @param toDisplay the expression to display
+     * @return the expression
+     */
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return toDisplay;
+    }
+
+    /**
+     * Gives a script that evaluates expressions in order.
+     * A script is one expression, so they are joined with the comma operator and the script's value is the last one's
+     * @param statements the expressions
+     * @return the expressions joined by commas
+     */
+    @Override
+    public String getProgram(String... statements) {
+        return String.join(", ", statements);
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+}
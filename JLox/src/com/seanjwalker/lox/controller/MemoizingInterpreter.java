@@ -0,0 +1,69 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Interpreter for syntax trees with shared subtrees, such as those built by a HashConsingExpressionFactory.
+ * Evaluation is pure, so each shared node is evaluated once per interpret() and its value reused
+ * wherever else it appears. Unshared nodes are evaluated as usual, without touching the cache
+ */
+public class MemoizingInterpreter extends Interpreter {
+    private final Set<Expression> sharedNodes;
+    private final Map<Expression, Object> values = new IdentityHashMap<>();
+
+    /**
+     * Constructor
+     * @param inputs the values of the variables the expression may refer to
+     * @param sharedNodes the nodes that appear more than once, compared by identity
+     */
+    public MemoizingInterpreter(Map<String, ?> inputs, Set<Expression> sharedNodes) {
+        this(inputs, sharedNodes, null);
+    }
+
+    /**
+     * Constructor for an evaluation with limited resources
+     * @param inputs the values of the variables the expression may refer to
+     * @param sharedNodes the nodes that appear more than once, compared by identity
+     * @param budget the limits the evaluation must stay within, or null for none
+     */
+    public MemoizingInterpreter(Map<String, ?> inputs, Set<Expression> sharedNodes, Budget budget) {
+        super(inputs, budget);
+        this.sharedNodes = sharedNodes;
+    }
+
+    /**
+     * Evaluates a complete expression, starting with an empty cache
+     * @param expression the syntax tree to evaluate
+     * @return the value of the expression
+     */
+    @Override
+    public Object interpret(Expression expression) {
+        values.clear();
+        try {
+            return super.interpret(expression);
+        } finally {
+            values.clear();
+        }
+    }
+
+    /**
+     * Evaluates an inner expression, reusing the value of a shared node computed earlier
+     * @param expression the expression to evaluate
+     * @return the evaluation of the expression
+     */
+    @Override
+    Object evaluate(Expression expression) {
+        if (!sharedNodes.contains(expression)) return super.evaluate(expression);
+
+        Object value = values.get(expression);
+        if (value != null || values.containsKey(expression)) return value;
+
+        value = super.evaluate(expression);
+        values.put(expression, value);
+        return value;
+    }
+}
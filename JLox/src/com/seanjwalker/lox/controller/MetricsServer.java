@@ -0,0 +1,79 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.view.MetricsFormatter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the metrics registry over HTTP at /metrics, for a Prometheus server to scrape.
+ * It listens only on the loopback interface, so the metrics are not exposed beyond the machine
+ */
+public class MetricsServer implements AutoCloseable {
+    private final HttpServer server;
+    private final MetricsFormatter formatter = new MetricsFormatter();
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     * Starts serving immediately
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public MetricsServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    /**
+     * Gives the port the server listens on
+     * @return the port
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving. Closing a server that is already closed does nothing
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        server.stop(0);
+    }
+
+    /**
+     * Answers one request with the current metrics
+     * @param exchange the request and its response
+     * @throws IOException if the response cannot be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            StringBuilder text = new StringBuilder();
+            formatter.write(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", MetricsFormatter.CONTENT_TYPE);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream response = exchange.getResponseBody()) {
+                response.write(body);
+            }
+        }
+    }
+}
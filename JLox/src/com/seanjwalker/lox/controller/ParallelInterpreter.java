@@ -0,0 +1,199 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Interpreter that evaluates the two operands of a large binary expression at the same time.
+ * Before evaluating, the tree is measured once, and every binary expression whose operands both
+ * contain at least the threshold number of nodes becomes a fork point.
+ * At a fork point the right operand runs as a fork-join task while the left operand runs on the current thread.
+ * Evaluating an expression has no effect other than its value or its error, so the only ordering to keep
+ * is that an error in the left operand wins over an error in the right one, as it does sequentially
+ */
+public class ParallelInterpreter extends Interpreter {
+    /**
+     * The default number of nodes each operand needs before the operands are evaluated in parallel
+     */
+    public static final int DEFAULT_THRESHOLD = 10_000;
+
+    private final Map<String, ?> inputs;
+    private final int threshold;
+    private final Budget budget;
+    private final Set<Expression> forkPoints;
+
+    /**
+     * Constructor for expressions without inputs, using the default threshold
+     */
+    public ParallelInterpreter() {
+        this(Map.of(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     * @param inputs the values of the variables the expression may refer to
+     * @param threshold the number of nodes each operand needs before the operands are evaluated in parallel
+     */
+    public ParallelInterpreter(Map<String, ?> inputs, int threshold) {
+        this(inputs, threshold, null);
+    }
+
+    /**
+     * Constructor for an evaluation with limited resources
+     * @param inputs the values of the variables the expression may refer to
+     * @param threshold the number of nodes each operand needs before the operands are evaluated in parallel
+     * @param budget the limits the whole evaluation, across every thread, must stay within, or null for none
+     */
+    public ParallelInterpreter(Map<String, ?> inputs, int threshold, Budget budget) {
+        this(inputs, threshold, budget, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * Constructor
+     * @param inputs the values of the variables the expression may refer to
+     * @param threshold the number of nodes each operand needs before the operands are evaluated in parallel
+     * @param budget the limits the evaluation must stay within, or null for none
+     * @param forkPoints the binary expressions whose operands are evaluated in parallel
+     */
+    private ParallelInterpreter(Map<String, ?> inputs, int threshold, Budget budget, Set<Expression> forkPoints) {
+        super(inputs, budget);
+        this.inputs = inputs;
+        this.threshold = threshold;
+        this.budget = budget;
+        this.forkPoints = forkPoints;
+    }
+
+    /**
+     * Evaluates a complete expression on the fork-join pool
+     * @param expression the syntax tree to evaluate
+     * @return the value of the expression
+     */
+    @Override
+    public Object interpret(Expression expression) {
+        forkPoints.clear();
+        if (measure(expression) < 2 * threshold) return super.interpret(expression);
+
+        ForkJoinTask<Object> task = new Evaluation(expression);
+        return ForkJoinTask.inForkJoinPool() ? task.invoke() : ForkJoinPool.commonPool().invoke(task);
+    }
+
+    /**
+     * Evaluates a binary expression, splitting it across threads if it is a fork point
+     * @param expression the binary expression visited
+     * @return the evaluation of the expression
+     */
+    @Override
+    public Object visit(Expression.Binary expression) {
+        if (!forkPoints.contains(expression)) return super.visit(expression);
+
+        ForkJoinTask<Object> rightTask = new Evaluation(expression.right).fork();
+
+        Object left;
+        try {
+            left = evaluate(expression.left);
+        } catch (RuntimeException e) {
+            // The left operand's error is the one a sequential evaluation reports
+            rightTask.cancel(false);
+            throw e;
+        }
+
+        return binary(expression.operator, left, rightTask.join());
+    }
+
+    /**
+     * Counts the nodes of an expression, recording every fork point within it
+     * @param expression the expression to measure
+     * @return the number of nodes in the expression
+     */
+    private int measure(Expression expression) {
+        return expression.accept(new Expression.Visitor<Integer>() {
+            @Override
+            public Integer visit(Expression.Binary expression) {
+                int left = expression.left.accept(this);
+                int right = expression.right.accept(this);
+                if (left >= threshold && right >= threshold) forkPoints.add(expression);
+                return left + right + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Conditional expression) {
+                return expression.condition.accept(this) + expression.thenBranch.accept(this)
+                        + expression.elseBranch.accept(this) + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Grouping expression) {
+                return expression.expression.accept(this) + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Literal expression) {
+                return 1;
+            }
+
+            // The right operand may not be evaluated at all, so it is never started early
+            @Override
+            public Integer visit(Expression.Logical expression) {
+                return expression.left.accept(this) + expression.right.accept(this) + 1;
+            }
+
+            // The expressions of a sequence are evaluated one after another, never forked
+            @Override
+            public Integer visit(Expression.Sequence expression) {
+                int nodes = 1;
+                for (Expression part : expression.expressions) nodes += part.accept(this);
+                return nodes;
+            }
+
+            @Override
+            public Integer visit(Expression.Unary expression) {
+                return expression.right.accept(this) + 1;
+            }
+
+            @Override
+            public Integer visit(Expression.Variable expression) {
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * The evaluation of one subtree as a fork-join task.
+     * Each task evaluates with an interpreter of its own, so its counts of nodes evaluated and not yet charged
+     * to the budget are only ever touched by the thread running the task.
+     * ForkJoinTask is serializable, but these tasks only ever live within one evaluation and are never serialized
+     */
+    @SuppressWarnings("serial")
+    private class Evaluation extends RecursiveTask<Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Expression expression;
+
+        /**
+         * Constructor
+         * @param expression the subtree to evaluate
+         */
+        Evaluation(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        protected Object compute() {
+            ParallelInterpreter interpreter = new ParallelInterpreter(inputs, threshold, budget, forkPoints);
+            try {
+                Object value = interpreter.evaluate(expression);
+                interpreter.settle(expression);
+                return value;
+            } finally {
+                interpreter.recordEvaluated();
+            }
+        }
+    }
+}
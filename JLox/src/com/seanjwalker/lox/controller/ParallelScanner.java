@@ -0,0 +1,149 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.model.Token;
+import com.seanjwalker.lox.view.ErrorReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Controller for scanning very large sources on several cores.
+ * A light pre-pass splits the source at line starts that lie outside of strings and block comments,
+ * each chunk is scanned by its own Scanner on the fork-join pool,
+ * and the chunks' tokens are joined in order. The result is identical to a sequential scan
+ */
+class ParallelScanner {
+    /**
+     * Sources shorter than this are not worth splitting
+     */
+    static final int MIN_PARALLEL_LENGTH = 4 * 1024 * 1024;
+
+    private static final int MIN_CHUNK_LENGTH = 1024 * 1024;
+
+    private final String source;
+    private final ErrorReporter errorReporter;
+    private final List<Integer> chunkStarts = new ArrayList<>();
+    private final List<Integer> chunkLines = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param source the Lox source code scanned
+     * @param errorReporter the controller to handle errors
+     */
+    ParallelScanner(String source, ErrorReporter errorReporter) {
+        this.source = source;
+        this.errorReporter = errorReporter;
+    }
+
+    /**
+     * Scans all tokens in the source
+     * @return the source as a list of tokens
+     */
+    List<Token> scanTokens() {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        findChunks(Math.max(MIN_CHUNK_LENGTH, source.length() / (parallelism * 4)));
+
+        List<DeferredErrors> errors = new ArrayList<>();
+        for (int i = 0; i < chunkStarts.size(); i++) errors.add(new DeferredErrors());
+
+        List<List<Token>> chunks = IntStream.range(0, chunkStarts.size())
+                .parallel()
+                .mapToObj(i -> scanChunk(i, errors.get(i)))
+                .toList();
+
+        int size = 0;
+        for (List<Token> chunk : chunks) size += chunk.size();
+
+        // Every chunk ends with its own EOF; only the last one is kept
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < chunks.size(); i++) {
+            List<Token> chunk = chunks.get(i);
+            tokens.addAll(i == chunks.size() - 1 ? chunk : chunk.subList(0, chunk.size() - 1));
+            errors.get(i).replay(errorReporter);
+        }
+        Metrics.tokensScanned.add(tokens.size());
+        return tokens;
+    }
+
+    /**
+     * Scans one chunk of the source
+     * @param index the index of the chunk
+     * @param errors where the chunk's errors are held until they can be reported in order
+     * @return the chunk's tokens, ending with EOF, which are counted once stitched together
+     */
+    private List<Token> scanChunk(int index, ErrorReporter errors) {
+        int begin = chunkStarts.get(index);
+        int end = index + 1 < chunkStarts.size() ? chunkStarts.get(index + 1) : source.length();
+        return new Scanner(source, begin, end, chunkLines.get(index), errors).scan();
+    }
+
+    /**
+     * Pre-pass choosing where chunks begin.
+     * Only quotes, comment delimiters and newlines are examined, and the bodies of strings and comments
+     * are jumped over with indexOf, so this is much cheaper than scanning.
+     * A chunk begins at the first line start past the target length that is not inside a string or comment,
+     * which is exactly where a sequential Scanner would be between tokens
+     * @param chunkLength the target length of each chunk
+     */
+    private void findChunks(int chunkLength) {
+        chunkStarts.add(0);
+        chunkLines.add(1);
+
+        int length = source.length();
+        int target = chunkLength;
+        int line = 1;
+        int i = 0;
+
+        while (i < length) {
+            char c = source.charAt(i);
+
+            if (c == '\n') {
+                line++;
+                i++;
+                if (i >= target && i < length) {
+                    chunkStarts.add(i);
+                    chunkLines.add(line);
+                    target = i + chunkLength;
+                }
+            } else if (c == '"') {
+                int close = source.indexOf('"', i + 1);
+                if (close == -1) return;
+                line += countNewlines(i + 1, close);
+                i = close + 1;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                int newline = source.indexOf('\n', i + 2);
+                if (newline == -1) return;
+                i = newline;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                int close = source.indexOf("*/", i + 2);
+                if (close == -1) return;
+                line += countNewlines(i + 2, close);
+                i = close + 2;
+            } else if (c == '*' && i + 1 < length && source.charAt(i + 1) == '/') {
+                // The Scanner consumes a stray */ as one lexeme, so its / cannot start a comment
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Counts the newlines in part of the source
+     * @param from the first index examined
+     * @param to the index after the last one examined
+     * @return the number of newlines found
+     */
+    private int countNewlines(int from, int to) {
+        int count = 0;
+        int newline = source.indexOf('\n', from, to);
+        while (newline != -1) {
+            count++;
+            newline = source.indexOf('\n', newline + 1, to);
+        }
+        return count;
+    }
+}
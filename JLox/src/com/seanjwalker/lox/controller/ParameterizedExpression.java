@@ -0,0 +1,138 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.view.ErrorReporter;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An expression parsed once and evaluated many times against different inputs.
+ * Its parameters are the names of the variables it refers to
+ */
+public class ParameterizedExpression {
+    public final Expression expression;
+    public final List<String> parameters;
+
+    /**
+     * Constructor
+     * @param expression the syntax tree of the expression
+     */
+    public ParameterizedExpression(Expression expression) {
+        this.expression = expression;
+
+        Set<String> names = new LinkedHashSet<>();
+        collectParameters(expression, names);
+        this.parameters = List.copyOf(names);
+    }
+
+    /**
+     * Scans and parses an expression
+     * @param source the source code of the expression
+     * @param errorReporter the controller to handle errors
+     * @return the parsed expression, or null if the source contains errors
+     */
+    public static ParameterizedExpression parse(String source, ErrorReporter errorReporter) {
+        Scanner scanner = new Scanner(source, errorReporter);
+        Parser parser = new Parser(scanner.scanTokens(), errorReporter);
+        Expression expression = parser.parse();
+
+        if (errorReporter.hadError) return null;
+        return new ParameterizedExpression(expression);
+    }
+
+    /**
+     * Evaluates the expression for a single set of inputs
+     * @param inputs the value of each parameter
+     * @return the value of the expression
+     */
+    public Object evaluate(Map<String, ?> inputs) {
+        return evaluate(inputs, null);
+    }
+
+    /**
+     * Evaluates the expression for a single set of inputs within limits on its work
+     * @param inputs the value of each parameter
+     * @param budget the limits the evaluation must stay within, or null for none
+     * @return the value of the expression
+     * @throws BudgetExceededError if the evaluation runs out of budget
+     */
+    public Object evaluate(Map<String, ?> inputs, Budget budget) {
+        Object value = new Interpreter(inputs, budget).interpret(expression);
+        return Interpreter.toHost(value);
+    }
+
+    /**
+     * Compiles the expression into closures, for evaluating it many times faster than interpreting it
+     * @return the compiled expression, whose argument slots follow the order of parameters
+     */
+    public CompiledExpression compile() {
+        return new CompiledExpression(expression, parameters);
+    }
+
+    /**
+     * Evaluates the expression for every row of the input columns
+     * @param columns the column of values for each parameter
+     * @return a double[] or boolean[] holding the value of each row
+     */
+    public Object evaluateBatch(Map<String, double[]> columns) {
+        return new BatchInterpreter(columns).interpret(expression);
+    }
+
+    /**
+     * Gathers the variable names used in an expression, in order of first appearance
+     * @param expression the expression to search
+     * @param names the set the names are added to
+     */
+    private static void collectParameters(Expression expression, Set<String> names) {
+        expression.accept(new Expression.Visitor<Void>() {
+            @Override
+            public Void visit(Expression.Binary expression) {
+                expression.left.accept(this);
+                return expression.right.accept(this);
+            }
+
+            @Override
+            public Void visit(Expression.Conditional expression) {
+                expression.condition.accept(this);
+                expression.thenBranch.accept(this);
+                return expression.elseBranch.accept(this);
+            }
+
+            @Override
+            public Void visit(Expression.Grouping expression) {
+                return expression.expression.accept(this);
+            }
+
+            @Override
+            public Void visit(Expression.Literal expression) {
+                return null;
+            }
+
+            @Override
+            public Void visit(Expression.Logical expression) {
+                expression.left.accept(this);
+                return expression.right.accept(this);
+            }
+
+            @Override
+            public Void visit(Expression.Sequence expression) {
+                for (Expression part : expression.expressions) part.accept(this);
+                return null;
+            }
+
+            @Override
+            public Void visit(Expression.Unary expression) {
+                return expression.right.accept(this);
+            }
+
+            @Override
+            public Void visit(Expression.Variable expression) {
+                names.add(expression.name.lexeme);
+                return null;
+            }
+        });
+    }
+}
@@ -1,11 +1,15 @@
 package com.seanjwalker.lox.controller;
 
 import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.ExpressionFactory;
+import com.seanjwalker.lox.model.Metrics;
 import com.seanjwalker.lox.model.Token;
 import com.seanjwalker.lox.model.TokenType;
 import com.seanjwalker.lox.view.ErrorReporter;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntFunction;
 
 /**
  * Controller for parsing through tokens.
@@ -27,24 +31,63 @@ class Parser {
             super(message);
 
             if (token.type == TokenType.EOF) {
-                errorReporter.report(token.line, " at end", message);
+                errorReporter.report(token.line(), " at end", message);
             } else {
-                errorReporter.report(token.line, " at '" + token.lexeme + "'", message);
+                errorReporter.report(token.line(), " at '" + token.lexeme + "'", message);
             }
         }
     }
 
-    private final List<Token> tokens;
+    private final IntFunction<Token> tokens;
     private int current = 0;
     private final ErrorReporter errorReporter;
+    private final ExpressionFactory factory;
+    private final SubtreeCache cache;
 
     /**
      * Constructor
      * @param tokens the tokens consumed by the parser
+     * @param errorReporter the controller to handle errors
      */
     Parser(List<Token> tokens, ErrorReporter errorReporter) {
-        this.tokens = tokens;
+        this(tokens, errorReporter, new ExpressionFactory());
+    }
+
+    /**
+     * Constructor
+     * @param tokens the tokens consumed by the parser
+     * @param errorReporter the controller to handle errors
+     * @param factory creates the nodes of the syntax tree
+     */
+    Parser(List<Token> tokens, ErrorReporter errorReporter, ExpressionFactory factory) {
+        this(tokens, errorReporter, factory, null);
+    }
+
+    /**
+     * Constructor for a parse that reuses the untouched subtrees of the previous one
+     * @param tokens the tokens consumed by the parser
+     * @param errorReporter the controller to handle errors
+     * @param factory creates the nodes of the syntax tree
+     * @param cache the subtrees of the previous parse, or null to parse everything
+     */
+    Parser(List<Token> tokens, ErrorReporter errorReporter, ExpressionFactory factory, SubtreeCache cache) {
+        this.tokens = tokens::get;
+        this.errorReporter = errorReporter;
+        this.factory = factory;
+        this.cache = cache;
+    }
+
+    /**
+     * Constructor for parsing tokens as they are scanned
+     * @param tokens the buffer the parser pulls tokens from
+     * @param errorReporter the controller to handle errors
+     * @param factory creates the nodes of the syntax tree
+     */
+    Parser(TokenRing tokens, ErrorReporter errorReporter, ExpressionFactory factory) {
+        this.tokens = tokens::get;
         this.errorReporter = errorReporter;
+        this.factory = factory;
+        this.cache = null;
     }
 
     /**
@@ -52,9 +95,13 @@ class Parser {
      * @return the syntax tree representing the input
      */
     Expression parse() {
+        Metrics.parses.increment();
         try {
-            return expression();
+            Expression expression = expression();
+            if (cache != null) cache.finish();
+            return expression;
         } catch (ParseError e) {
+            if (cache != null) cache.abandon();
             return null;
         }
     }
@@ -68,13 +115,89 @@ class Parser {
         return block();
     }
 
+    /**
+     * Parses comma-separated segments into one flat sequence
+     * @return the syntax tree for the block, which is the lone segment if there are no commas
+     */
     private Expression block() {
-        Expression expression = equality();
+        Expression first = segment();
+        if (!check(TokenType.COMMA)) return first;
 
+        List<Expression> expressions = new ArrayList<>();
+        expressions.add(first);
         while (match(TokenType.COMMA)) {
+            expressions.add(segment());
+        }
+
+        return factory.sequence(expressions.toArray(new Expression[0]));
+    }
+
+    /**
+     * Parses one comma-separated part of a block
+     * @return the syntax tree for the part
+     */
+    private Expression segment() {
+        if (cache == null) return conditional();
+
+        SubtreeCache.Reused reused = cache.reuse(current, SubtreeCache.Kind.SEGMENT);
+        if (reused != null) {
+            current += reused.length();
+            return reused.expression();
+        }
+
+        int start = current;
+        cache.begin();
+        Expression expression = conditional();
+        // The token after the segment was examined to find where it ends
+        cache.end(SubtreeCache.Kind.SEGMENT, expression, start, current, current + 1);
+        return expression;
+    }
+
+    /**
+     * Parses a conditional expression, which groups to the right
+     * @return the syntax tree for the conditional expression
+     */
+    private Expression conditional() {
+        Expression expression = or();
+
+        if (match(TokenType.QUESTION)) {
+            Token operator = previous();
+            Expression thenBranch = conditional();
+            consume(TokenType.COLON, "Expect ':' after then branch of conditional expression.");
+            Expression elseBranch = conditional();
+            expression = factory.conditional(expression, operator, thenBranch, elseBranch);
+        }
+
+        return expression;
+    }
+
+    /**
+     * Parses a logical or
+     * @return the syntax tree for the logical or
+     */
+    private Expression or() {
+        Expression expression = and();
+
+        while (match(TokenType.OR)) {
+            Token operator = previous();
+            Expression right = and();
+            expression = factory.logical(expression, operator, right);
+        }
+
+        return expression;
+    }
+
+    /**
+     * Parses a logical and
+     * @return the syntax tree for the logical and
+     */
+    private Expression and() {
+        Expression expression = equality();
+
+        while (match(TokenType.AND)) {
             Token operator = previous();
             Expression right = equality();
-            expression = new Expression.Binary(expression, operator, right);
+            expression = factory.logical(expression, operator, right);
         }
 
         return expression;
@@ -90,7 +213,7 @@ class Parser {
         while (match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
             Token operator = previous();
             Expression right = comparison();
-            expression = new Expression.Binary(expression, operator, right);
+            expression = factory.binary(expression, operator, right);
         }
 
         return expression;
@@ -106,7 +229,7 @@ class Parser {
         while (match(TokenType.GREATER,TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
             Token operator = previous();
             Expression right = term();
-            expression = new Expression.Binary(expression, operator, right);
+            expression = factory.binary(expression, operator, right);
         }
 
         return expression;
@@ -122,7 +245,7 @@ class Parser {
         while (match(TokenType.PLUS, TokenType.MINUS)) {
             Token operator = previous();
             Expression right = factor();
-            expression = new Expression.Binary(expression, operator, right);
+            expression = factory.binary(expression, operator, right);
         }
 
         return expression;
@@ -138,7 +261,7 @@ class Parser {
         while (match(TokenType.STAR, TokenType.SLASH)) {
             Token operator = previous();
             Expression right = unary();
-            expression = new Expression.Binary(expression, operator, right);
+            expression = factory.binary(expression, operator, right);
         }
 
         return expression;
@@ -152,36 +275,54 @@ class Parser {
         if (match(TokenType.MINUS, TokenType.BANG)) {
             Token operator = previous();
             Expression right = unary();
-            return new Expression.Unary(operator, right);
+            return factory.unary(operator, right);
         }
 
         return primary();
     }
 
     /**
-     * Parses literals and groupings
-     * @return the literal or expression of the grouping
+     * Parses literals, variables and groupings
+     * @return the literal, variable or expression of the grouping
      */
     private Expression primary() {
-        if (match(TokenType.FALSE)) return new Expression.Literal(TokenType.FALSE);
-        if (match(TokenType.TRUE)) return new Expression.Literal(TokenType.TRUE);
-        if (match(TokenType.NIL)) return new Expression.Literal(TokenType.NIL);
+        if (match(TokenType.FALSE)) return factory.literal(false);
+        if (match(TokenType.TRUE)) return factory.literal(true);
+        if (match(TokenType.NIL)) return factory.literal(null);
 
-        if (match(TokenType.NUMBER, TokenType.STRING)) return new Expression.Literal(previous().literal);
+        if (match(TokenType.NUMBER, TokenType.STRING)) return factory.literal(previous().literal);
 
-        if (match(TokenType.LEFT_PAREN)) {
-            Expression expression = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expression.Grouping(expression);
-        }
+        if (match(TokenType.IDENTIFIER)) return factory.variable(previous());
 
-        if (check(TokenType.EOF)) return null;
-
-        System.out.println(current);
+        if (check(TokenType.LEFT_PAREN)) return grouping();
 
         throw new ParseError(this.errorReporter, peek(), "Expect expression.");
     }
 
+    /**
+     * Parses a grouping
+     * @return the syntax tree for the grouping
+     */
+    private Expression grouping() {
+        int start = current;
+        if (cache != null) {
+            SubtreeCache.Reused reused = cache.reuse(start, SubtreeCache.Kind.GROUPING);
+            if (reused != null) {
+                current += reused.length();
+                return reused.expression();
+            }
+            cache.begin();
+        }
+
+        advance();
+        Expression expression = expression();
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+        Expression grouping = factory.grouping(expression);
+
+        if (cache != null) cache.end(SubtreeCache.Kind.GROUPING, grouping, start, current, current);
+        return grouping;
+    }
+
     /**
      * Checks if the current token has any of the given types.
      * If so, the token is consumed
@@ -233,7 +374,7 @@ class Parser {
      * @return the current token
      */
     private Token peek() {
-        return tokens.get(current);
+        return tokens.apply(current);
     }
 
     /**
@@ -241,7 +382,7 @@ class Parser {
      * @return the previous token
      */
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.apply(current - 1);
     }
 
 
@@ -0,0 +1,24 @@
+package com.seanjwalker.lox.controller;
+
+/**
+ * Observes the phases of running a script, for measuring them
+ */
+public interface PhaseListener {
+    /**
+     * The phases a script goes through, in order.
+     * Reading only happens for script files and optimizing only when trees are compiled
+     */
+    enum Phase { READ, SCAN, PARSE, OPTIMIZE, EVALUATE, PRINT }
+
+    /**
+     * Called just before a phase begins
+     * @param phase the phase beginning
+     */
+    void phaseStarted(Phase phase);
+
+    /**
+     * Called just after a phase ends, whether or not it succeeded
+     * @param phase the phase ending
+     */
+    void phaseFinished(Phase phase);
+}
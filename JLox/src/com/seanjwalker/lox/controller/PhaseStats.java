@@ -0,0 +1,119 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.view.OutputPrinter;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Adds up what each phase of running scripts costs, for finding which phase a regression in time or memory is in.
+ * Each phase is timed and the memory allocated by the thread running it is counted.
+ * Work a phase hands to other threads, such as the parallel scanner's, is timed but its allocation is not counted.
+ * Phases may run on several threads at once, as the stages of the pipe mode do. Each is timed and counted
+ * on its own thread, so the times of phases that overlap add up to more than the time that passed.
+ * Garbage collection cannot be told apart by phase, so it is reported for the whole time since the stats began
+ */
+public class PhaseStats implements PhaseListener {
+    private static final int PHASES = Phase.values().length;
+
+    private final long[] runs = new long[PHASES];
+    private final long[] nanos = new long[PHASES];
+    private final long[] allocated = new long[PHASES];
+
+    // When each phase running on a thread began, and what the thread had allocated by then
+    private final ThreadLocal<long[]> phaseStarts = ThreadLocal.withInitial(() -> new long[PHASES]);
+    private final ThreadLocal<long[]> allocatedStarts = ThreadLocal.withInitial(() -> new long[PHASES]);
+
+    private final long wallStart = System.nanoTime();
+    private final long tokensStart = Metrics.tokensScanned.value();
+    private final long nodesStart = Metrics.nodesEvaluated.value();
+    private final long collectionsStart = collections();
+    private final long collectionMillisStart = collectionMillis();
+
+    @Override
+    public void phaseStarted(Phase phase) {
+        allocatedStarts.get()[phase.ordinal()] = Allocation.currentThreadBytes();
+        phaseStarts.get()[phase.ordinal()] = System.nanoTime();
+    }
+
+    @Override
+    public void phaseFinished(Phase phase) {
+        long elapsed = System.nanoTime() - phaseStarts.get()[phase.ordinal()];
+        long allocatedInPhase = Allocation.currentThreadBytes() - allocatedStarts.get()[phase.ordinal()];
+        synchronized (this) {
+            runs[phase.ordinal()]++;
+            nanos[phase.ordinal()] += elapsed;
+            allocated[phase.ordinal()] += allocatedInPhase;
+        }
+    }
+
+    /**
+     * Prints the totals so far, one line for each phase that ran
+     * @param outputPrinter where the report is printed
+     */
+    public synchronized void print(OutputPrinter outputPrinter) {
+        long wall = System.nanoTime() - wallStart;
+        long tokens = Metrics.tokensScanned.value() - tokensStart;
+        long nodes = Metrics.nodesEvaluated.value() - nodesStart;
+        boolean counted = Allocation.currentThreadBytes() >= 0;
+
+        outputPrinter.printError(String.format("Stats: %.3f ms, %d tokens, %d nodes evaluated",
+                wall / 1e6, tokens, nodes));
+        outputPrinter.printError(String.format("  %-9s %8s %12s %16s %12s",
+                "phase", "runs", "time ms", "bytes allocated", "bytes/token"));
+
+        long totalAllocated = 0;
+        for (Phase phase : Phase.values()) {
+            int i = phase.ordinal();
+            if (runs[i] == 0) continue;
+            totalAllocated += allocated[i];
+            outputPrinter.printError(String.format("  %-9s %8d %12.3f %16s %12s",
+                    phase.name().toLowerCase(), runs[i], nanos[i] / 1e6,
+                    counted ? Long.toString(allocated[i]) : "n/a", perToken(allocated[i], tokens, counted)));
+        }
+        outputPrinter.printError(String.format("  %-9s %8s %12s %16s %12s", "total", "", "",
+                counted ? Long.toString(totalAllocated) : "n/a", perToken(totalAllocated, tokens, counted)));
+
+        long collectionMillis = collectionMillis();
+        outputPrinter.printError(String.format("  gc: %d collections, %s ms", collections() - collectionsStart,
+                collectionMillis < 0 ? "n/a" : Long.toString(collectionMillis - collectionMillisStart)));
+    }
+
+    /**
+     * Formats bytes allocated per token scanned
+     * @param bytes the bytes allocated
+     * @param tokens the tokens scanned
+     * @param counted whether the JVM counts allocation
+     * @return the figure, or n/a if there is none
+     */
+    private static String perToken(long bytes, long tokens, boolean counted) {
+        if (!counted || tokens == 0) return "n/a";
+        return String.format("%.1f", (double)bytes / tokens);
+    }
+
+    /**
+     * Gives the number of collections every collector has run
+     * @return the collections so far
+     */
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Gives the time every collector has spent collecting, which for most collectors is the time paused
+     * @return the milliseconds so far, or -1 if no collector reports them
+     */
+    private static long collectionMillis() {
+        long millis = -1;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long time = collector.getCollectionTime();
+            if (time >= 0) millis = Math.max(millis, 0) + time;
+        }
+        return millis;
+    }
+}
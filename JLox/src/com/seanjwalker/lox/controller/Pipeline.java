@@ -0,0 +1,321 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.view.ErrorReporter;
+import com.seanjwalker.lox.view.OutputPrinter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs a stream of one-line scripts through four stages, each on a thread of its own:
+ * reading lines, scanning and parsing them, evaluating them, and printing the results.
+ * Lines move between stages in batches through bounded queues, so a stage that falls behind
+ * blocks the ones before it and only a few batches are ever held in memory.
+ * Every stage handles batches in the order it receives them, and lines within a batch in order,
+ * so results and errors come out in the order of the input.
+ * If a stage fails, the lines before the failing one are still printed and then the failure is rethrown,
+ * as running the lines one by one would have done. That holds for errors as well as exceptions,
+ * such as the stack overflow a deeply nested line causes, so a failing stage never leaves printing waiting.
+ * Each stage tells the controller's phase listener of every batch it handles, from its own thread
+ */
+class Pipeline {
+    /**
+     * The most lines moved between stages at once
+     */
+    static final int BATCH_SIZE = 256;
+
+    /**
+     * The most batches waiting between two stages
+     */
+    static final int QUEUE_CAPACITY = 4;
+
+    private static final Batch END = new Batch(0);
+
+    private final AppController appController;
+    private final OutputPrinter outputPrinter;
+    private final ErrorReporter errorReporter;
+
+    private final BlockingQueue<Batch> read = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Batch> evaluated = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile Throwable failure;
+
+    /**
+     * Constructor
+     * @param appController the controller whose options decide how each line is evaluated
+     * @param outputPrinter where results are printed
+     * @param errorReporter where errors are reported
+     */
+    Pipeline(AppController appController, OutputPrinter outputPrinter, ErrorReporter errorReporter) {
+        this.appController = appController;
+        this.outputPrinter = outputPrinter;
+        this.errorReporter = errorReporter;
+    }
+
+    /**
+     * Runs every line of the input and returns once the last result is printed.
+     * The calling thread prints the results
+     * @param reader the input, one script per line
+     */
+    void run(BufferedReader reader) {
+        Thread[] stages = {
+                new Thread(() -> read(reader), "jlox-pipe-read"),
+                new Thread(() -> forward(read, parsed, PhaseListener.Phase.PARSE, this::parse), "jlox-pipe-parse"),
+                new Thread(() -> forward(parsed, evaluated, PhaseListener.Phase.EVALUATE, this::evaluate),
+                        "jlox-pipe-evaluate")
+        };
+        for (Thread stage : stages) {
+            stage.setDaemon(true);
+            stage.start();
+        }
+
+        print();
+
+        if (failure != null) {
+            // Stages still running are blocked on a queue nothing will serve again
+            for (Thread stage : stages) stage.interrupt();
+            if (failure instanceof Error error) throw error;
+            throw (RuntimeException)failure;
+        }
+        for (Thread stage : stages) {
+            try {
+                stage.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * The first stage: reads lines into batches.
+     * A batch is sent on as soon as it is full or no more input is ready,
+     * so lines that trickle in are not held back waiting for a full batch
+     * @param reader the input
+     */
+    private void read(BufferedReader reader) {
+        Batch batch = new Batch(BATCH_SIZE);
+        try {
+            while (fill(reader, batch)) {
+                if (failure != null) return;
+                read.put(batch);
+                batch = new Batch(BATCH_SIZE);
+            }
+            if (batch.size > 0) read.put(batch);
+            read.put(END);
+        } catch (InterruptedException ignored) {
+            // Printing has stopped
+        } catch (IOException e) {
+            failBatch(batch, new UncheckedIOException(e));
+        } catch (RuntimeException | Error e) {
+            failBatch(batch, e);
+        }
+    }
+
+    /**
+     * Reads lines into a batch until it is full or no more input is ready
+     * @param reader the input
+     * @param batch the batch filled
+     * @return true if there may be more input, false once it is consumed
+     * @throws IOException if the input cannot be read
+     */
+    private boolean fill(BufferedReader reader, Batch batch) throws IOException {
+        appController.startPhase(PhaseListener.Phase.READ);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                batch.lines[batch.size++] = line;
+                if (batch.size == BATCH_SIZE || !reader.ready()) return true;
+            }
+            return false;
+        } finally {
+            appController.finishPhase(PhaseListener.Phase.READ);
+        }
+    }
+
+    /**
+     * Runs a middle stage: does its work on each line of each batch and passes the batch on.
+     * A line whose work fails ends its batch and the stage
+     * @param in the queue the stage takes batches from
+     * @param out the queue the stage puts batches on
+     * @param phase the phase the stage's work is reported as
+     * @param work what the stage does to a line
+     */
+    private void forward(BlockingQueue<Batch> in, BlockingQueue<Batch> out, PhaseListener.Phase phase, Stage work) {
+        try {
+            while (true) {
+                Batch batch = in.take();
+                if (batch != END) {
+                    appController.startPhase(phase);
+                    try {
+                        for (int i = 0; i < batch.size; i++) {
+                            try {
+                                work.run(batch, i);
+                            } catch (RuntimeException | Error e) {
+                                // Lines before the one that failed are still printed
+                                batch.size = i;
+                                batch.failed = true;
+                                fail(e);
+                            }
+                        }
+                    } finally {
+                        appController.finishPhase(phase);
+                    }
+                }
+                out.put(batch);
+                if (batch == END || batch.failed) return;
+            }
+        } catch (InterruptedException ignored) {
+            // Printing has stopped
+        }
+    }
+
+    /**
+     * Scans and parses one line, or finds it in the program cache, holding back its errors so they are reported in order
+     * @param batch the batch holding the line
+     * @param i the index of the line in the batch
+     */
+    private void parse(Batch batch, int i) {
+        Metrics.scriptsRun.increment();
+        Program program = appController.program(batch.lines[i]);
+
+        batch.lines[i] = null;
+        batch.results[i] = program.hadError() ? program.errors() : program;
+    }
+
+    /**
+     * Evaluates one parsed line, replacing its program with the text of its value or the error it raised
+     * @param batch the batch holding the line
+     * @param i the index of the line in the batch
+     */
+    private void evaluate(Batch batch, int i) {
+        if (!(batch.results[i] instanceof Program program)) return;
+
+        if (appController.printsAst()) {
+            batch.results[i] = new AstMaker().print(program.expression());
+            return;
+        }
+
+        Interpreter interpreter = appController.newInterpreter(program.sharedNodes());
+        try {
+            Object value = program.compiled() != null ? program.compiled().evaluate(Map.of())
+                    : interpreter.interpret(program.expression());
+            batch.results[i] = interpreter.stringify(value);
+        } catch (RuntimeError error) {
+            batch.results[i] = error;
+        }
+    }
+
+    /**
+     * The last stage: prints the outcome of each line, flushing output after every batch
+     */
+    private void print() {
+        try {
+            while (true) {
+                Batch batch = evaluated.take();
+                if (batch != END) {
+                    appController.startPhase(PhaseListener.Phase.PRINT);
+                    try {
+                        printBatch(batch);
+                    } finally {
+                        appController.finishPhase(PhaseListener.Phase.PRINT);
+                    }
+                }
+                if (batch == END || batch.failed) return;
+            }
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new IllegalStateException("Interrupted while printing results.", e));
+        }
+    }
+
+    /**
+     * Prints the outcome of each line of a batch, then flushes the output
+     * @param batch the batch
+     */
+    private void printBatch(Batch batch) {
+        for (int i = 0; i < batch.size; i++) {
+            Object result = batch.results[i];
+            if (result instanceof String text) {
+                outputPrinter.println(text);
+                continue;
+            }
+
+            // Errors go to another stream, so results before them are written out first
+            outputPrinter.flush();
+            if (result instanceof DeferredErrors errors) {
+                errors.replay(errorReporter);
+            } else {
+                RuntimeError error = (RuntimeError)result;
+                errorReporter.runtimeError(error.token.line(), error.getMessage(), error.kind());
+            }
+            errorReporter.hadError = false;
+            errorReporter.hadRuntimeError = false;
+        }
+        outputPrinter.flush();
+    }
+
+    /**
+     * Records the first failure of any stage
+     * @param e the exception or error that stopped the stage
+     */
+    private synchronized void fail(Throwable e) {
+        if (failure == null) failure = e;
+    }
+
+    /**
+     * Records the failure of the read stage and sends on the lines read before it, so printing ends
+     * @param batch the batch being filled when the stage failed
+     * @param e the exception or error that stopped the stage
+     */
+    private void failBatch(Batch batch, Throwable e) {
+        fail(e);
+        batch.failed = true;
+        try {
+            read.put(batch);
+        } catch (InterruptedException ignored) {
+            // Printing has stopped
+        }
+    }
+
+    /**
+     * The work a middle stage does on one line
+     */
+    @FunctionalInterface
+    private interface Stage {
+        /**
+         * Processes one line of a batch
+         * @param batch the batch holding the line
+         * @param i the index of the line in the batch
+         */
+        void run(Batch batch, int i);
+    }
+
+    /**
+     * Lines moving through the stages together.
+     * Each stage replaces what it is given with what it produces, so each line holds one thing at a time:
+     * its text, then its program or syntax errors, then the text of its value or its runtime error
+     */
+    private static final class Batch {
+        final String[] lines;
+        final Object[] results;
+        int size;
+        boolean failed;
+
+        /**
+         * Constructor
+         * @param capacity the most lines the batch can hold
+         */
+        Batch(int capacity) {
+            this.lines = new String[capacity];
+            this.results = new Object[capacity];
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+import com.seanjwalker.lox.model.ExpressionFactory;
+import com.seanjwalker.lox.model.HashConsingExpressionFactory;
+
+import java.util.Set;
+
+/**
+ * A scanned and parsed script, ready to be evaluated any number of times.
+ * Nothing in it is changed after it is made, so one program may be evaluated by several threads at once
+ * @param expression the syntax tree
+ * @param sharedNodes the nodes that appear more than once in the tree, empty unless it was hash-consed
+ * @param compiled the tree compiled into closures, or null if it is interpreted
+ * @param errors the errors found while scanning and parsing, to be reported every time the script is run
+ */
+record Program(Expression expression, Set<Expression> sharedNodes, CompiledExpression compiled, DeferredErrors errors) {
+    /**
+     * Scans and parses a script, holding back its errors
+     * @param source the source code
+     * @param factory creates the nodes of the syntax tree
+     * @param compile true to compile the tree as well, if it has no errors
+     * @return the program
+     */
+    static Program parse(String source, ExpressionFactory factory, boolean compile) {
+        DeferredErrors errors = new DeferredErrors();
+        Expression expression = new Parser(new Scanner(source, errors).scanTokens(), errors, factory).parse();
+        CompiledExpression compiled = compile && !errors.hadError
+                ? new ParameterizedExpression(expression).compile() : null;
+        return new Program(expression, sharedNodes(factory), compiled, errors);
+    }
+
+    /**
+     * Gives the nodes a factory shared, once it will create no more
+     * @param factory the factory a syntax tree was created with
+     * @return the shared nodes, empty unless the factory hash-conses
+     */
+    static Set<Expression> sharedNodes(ExpressionFactory factory) {
+        if (!(factory instanceof HashConsingExpressionFactory hashConsingFactory)) return Set.of();
+        hashConsingFactory.clear();
+        return hashConsingFactory.sharedNodes();
+    }
+
+    /**
+     * Gives whether the script failed to scan or parse
+     * @return true if there were errors
+     */
+    boolean hadError() {
+        return errors.hadError;
+    }
+}
@@ -0,0 +1,203 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of parsed programs keyed by their source, so a service that is sent the same scripts
+ * over and over scans and parses each of them once.
+ * Eviction is a segmented LRU: a new program starts on probation and is only protected once it is asked for again,
+ * so a burst of scripts seen once pushes out other one-off scripts rather than the ones that keep coming back.
+ * The entries are split over independent segments by hash, each with its own lock, so threads rarely wait on each other.
+ * Concurrent misses on the same source are loaded once, the other threads waiting for that load.
+ * Hits and misses are counted in Metrics under the name of the cache.
+ * A cache holds programs parsed with one set of options, so callers with different options need caches of their own
+ */
+class ProgramCache {
+    /**
+     * The number of programs kept when no capacity is asked for
+     */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The longest source worth caching; longer ones are whole scripts, which are rarely sent twice
+     */
+    static final int MAX_SOURCE_LENGTH = 4096;
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+
+    private final Segment[] segments;
+    private final Map<String, CompletableFuture<Program>> loading = new ConcurrentHashMap<>();
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+
+    /**
+     * Constructor
+     * @param name the name the cache's hits and misses are counted under
+     * @param capacity the most programs kept
+     */
+    ProgramCache(String name, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Cache capacity must be positive.");
+
+        int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // Spread the remainder so the capacities add up to exactly the capacity asked for
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+        }
+        hits = Metrics.cacheRequests(name, true);
+        misses = Metrics.cacheRequests(name, false);
+    }
+
+    /**
+     * Gives the program for a source, loading it if it is not cached.
+     * If another thread is already loading the same source, this waits for its program instead of loading it again.
+     * A load that throws is not cached, and the exception is thrown to every thread waiting for it
+     * @param source the source code
+     * @param loader scans and parses a source into a program
+     * @return the program
+     */
+    Program get(String source, Function<String, Program> loader) {
+        String key = normalize(source);
+        Segment segment = segments[spread(key.hashCode()) & (segments.length - 1)];
+
+        Program program = segment.get(key);
+        if (program != null) {
+            hits.increment();
+            return program;
+        }
+        misses.increment();
+
+        CompletableFuture<Program> load = new CompletableFuture<>();
+        CompletableFuture<Program> pending = loading.putIfAbsent(key, load);
+        if (pending != null) return await(pending);
+
+        try {
+            // Another thread may have finished loading the source between the lookup and claiming it
+            program = segment.get(key);
+            if (program == null) {
+                program = loader.apply(key);
+                segment.put(key, program);
+            }
+            load.complete(program);
+            return program;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            // Only removed once the program is in its segment, so no thread can start a second load
+            loading.remove(key, load);
+        }
+    }
+
+    /**
+     * Removes blanks at either end of a source.
+     * Newlines are kept, as they decide the line numbers errors are reported on
+     * @param source the source code
+     * @return the source as it is cached
+     */
+    static String normalize(String source) {
+        int start = 0;
+        int end = source.length();
+        while (start < end && isBlank(source.charAt(start))) start++;
+        while (end > start && isBlank(source.charAt(end - 1))) end--;
+        return source.substring(start, end);
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * Mixes the high bits of a hash into the low ones, which pick the segment
+     * @param hash the hash code of a key
+     * @return the spread hash
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Waits for a program another thread is loading
+     * @param pending the load
+     * @return the program
+     */
+    private static Program await(CompletableFuture<Program> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * One share of the cache, with a probationary and a protected part each kept in order of last use
+     */
+    private static final class Segment {
+        private final int probationCapacity;
+        private final int protectedCapacity;
+        private final LinkedHashMap<String, Program> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Program> protectedPrograms = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * Constructor
+         * @param capacity the most programs kept in the segment, four fifths of which may be protected
+         */
+        Segment(int capacity) {
+            this.protectedCapacity = capacity * 4 / 5;
+            this.probationCapacity = Math.max(1, capacity - protectedCapacity);
+        }
+
+        /**
+         * Looks up a program, protecting it if it was on probation
+         * @param key the normalized source
+         * @return the program, or null if it is not in the segment
+         */
+        synchronized Program get(String key) {
+            Program program = protectedPrograms.get(key);
+            if (program != null) return program;
+
+            program = probation.remove(key);
+            if (program == null) return null;
+
+            protectedPrograms.put(key, program);
+            if (protectedPrograms.size() > protectedCapacity) {
+                // The least recently used protected program gets one more chance on probation
+                Iterator<Map.Entry<String, Program>> eldest = protectedPrograms.entrySet().iterator();
+                Map.Entry<String, Program> demoted = eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+                trimProbation();
+            }
+            return program;
+        }
+
+        /**
+         * Adds a program on probation, evicting the least recently used one if the probation is full
+         * @param key the normalized source
+         * @param program the program
+         */
+        synchronized void put(String key, Program program) {
+            probation.put(key, program);
+            trimProbation();
+        }
+
+        private void trimProbation() {
+            Iterator<String> eldest = probation.keySet().iterator();
+            while (probation.size() > probationCapacity) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+}
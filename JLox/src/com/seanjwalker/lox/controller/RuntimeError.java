@@ -0,0 +1,32 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.model.Token;
+
+/**
+ * An error that appears while evaluating an expression
+ */
+public class RuntimeError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    // Tokens are not serializable, so a deserialized error keeps only its message
+    public final transient Token token;
+
+    /**
+     * Constructor
+     * @param token the token where the error occurs
+     * @param message the message to serve the user regarding the error
+     */
+    public RuntimeError(Token token, String message) {
+        super(message);
+        this.token = token;
+    }
+
+    /**
+     * Gives the kind the error is counted as in the metrics
+     * @return the kind of error
+     */
+    public Metrics.ErrorKind kind() {
+        return Metrics.ErrorKind.RUNTIME;
+    }
+}
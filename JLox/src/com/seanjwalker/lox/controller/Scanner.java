@@ -1,5 +1,7 @@
 package com.seanjwalker.lox.controller;
 
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.model.Numbers;
 import com.seanjwalker.lox.model.Token;
 import com.seanjwalker.lox.model.TokenType;
 import com.seanjwalker.lox.view.ErrorReporter;
@@ -15,11 +17,13 @@ import java.util.Map;
 class Scanner {
     private final String source;
     private final List<Token> tokens = new ArrayList<>();
-    private int start = 0;
-    private int current = 0;
-    private int line = 1;
+    private final Token[] fixedTokens = new Token[TokenType.values().length];
+    private final int end;
+    private int start;
+    private int current;
+    private int line;
     private final ErrorReporter errorReporter;
-    private boolean inBlockComment = false;
+    private int streamed = 0;
 
     /**
      * Constructor
@@ -27,7 +31,24 @@ class Scanner {
      * @param errorReporter the controller to handle errors
      */
     Scanner(String source, ErrorReporter errorReporter) {
+        this(source, 0, source.length(), 1, errorReporter);
+    }
+
+    /**
+     * Constructor for scanning only part of the source.
+     * The range must begin and end outside of any token, string or comment
+     * @param source the Lox source code scanned
+     * @param begin the index of the first character scanned
+     * @param end the index after the last character scanned
+     * @param line the line number at begin
+     * @param errorReporter the controller to handle errors
+     */
+    Scanner(String source, int begin, int end, int line, ErrorReporter errorReporter) {
         this.source = source;
+        this.start = begin;
+        this.current = begin;
+        this.end = end;
+        this.line = line;
         this.errorReporter = errorReporter;
     }
 
@@ -36,7 +57,21 @@ class Scanner {
      * @return the source as a list of tokens
      */
     List<Token> scanTokens() {
+        scan();
+        Metrics.tokensScanned.add(tokens.size());
+        return tokens;
+    }
+
+    /**
+     * Scans all tokens in the source without counting them in the metrics,
+     * for callers that only keep some of the tokens and count those themselves
+     * @return the source as a list of tokens
+     */
+    List<Token> scan() {
         while (!isAtEnd()) {
+            skipWhitespace();
+            if (isAtEnd()) break;
+
             // We are at the beginning of the next lexeme.
             start = current;
             scanToken();
@@ -46,6 +81,42 @@ class Scanner {
         return tokens;
     }
 
+    /**
+     * Scans only the next token in the source
+     * @return the next token, or an EOF token once the source is consumed
+     */
+    Token nextToken() {
+        int scanned = tokens.size();
+        while (tokens.size() == scanned) {
+            skipWhitespace();
+            start = current;
+            if (isAtEnd()) {
+                Metrics.tokensScanned.add(streamed + 1);
+                streamed = 0;
+                return new Token(TokenType.EOF, "", null, line);
+            }
+            scanToken();
+        }
+        streamed++;
+        return tokens.remove(scanned);
+    }
+
+    /**
+     * Gives where the lexeme most recently scanned begins
+     * @return the index of the lexeme's first character
+     */
+    int lexemeStart() {
+        return start;
+    }
+
+    /**
+     * Gives where the lexeme most recently scanned ends
+     * @return the index after the lexeme's last character
+     */
+    int lexemeEnd() {
+        return current;
+    }
+
     /**
      * Adds a token to the list of tokens based on what is encountered
      */
@@ -71,17 +142,10 @@ class Scanner {
             case '/':
                 if (match('/')) {
                     // A comment goes until the end of the line.
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    int newline = source.indexOf('\n', current, end);
+                    current = newline == -1 ? end : newline;
                 } else if (match('*')) {
-                    inBlockComment = true;
-                    while (peek() != '*' && peekNext() != '/') {
-                        if (peek() == '\n') line++;
-                        if (isAtEnd()) {
-                            errorReporter.error(line, "Unterminated block comment.");
-                            return;
-                        }
-                        advance();
-                    }
+                    blockComment();
                 }
                 else {
                     addToken(TokenType.SLASH);
@@ -90,10 +154,8 @@ class Scanner {
 
             case '*':
                 if (match('/')) {
-                    if (inBlockComment) {
-                        inBlockComment = false;
-                        if (!isAtEnd()) advance();
-                    } else errorReporter.error(line, "Unexpected block comment end");
+                    // A block comment consumes its own closing */, so this one has no opening
+                    errorReporter.error(line, "Unexpected block comment end");
                 } else {
                     addToken(TokenType.STAR);
                 }
@@ -113,8 +175,8 @@ class Scanner {
 
             default:
                 // if the character is an accepted single-character token
-                String string = String.valueOf(c);
-                if (TokenType.of(string) != null) addToken(TokenType.of(string));
+                TokenType type = TokenType.of(c);
+                if (type != null) addToken(type);
                 else if (isDigit(c)) number();
                 else if (isAlpha(c)) identifier();
                 else errorReporter.error(line, "Unexpected character.");
@@ -129,13 +191,8 @@ class Scanner {
         while (isAlphaNumeric(peek())) advance();
 
         String text = source.substring(start, current);
-        try {
-            TokenType type = TokenType.valueOf(text.toUpperCase());
-            if (TokenType.keywords.contains(type)) addToken(type);
-            else addToken(TokenType.IDENTIFIER);
-        } catch (IllegalArgumentException e) {
-            addToken(TokenType.IDENTIFIER);
-        }
+        TokenType type = TokenType.keyword(text);
+        addToken(type != null ? type : TokenType.IDENTIFIER);
     }
 
     /**
@@ -151,25 +208,34 @@ class Scanner {
             while (isDigit(peek()));
         }
 
-        addToken(TokenType.NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER, numberValue(source.substring(start, current)));
+    }
+
+    /**
+     * Converts the text of a number literal to its value.
+     * Integral literals that fit in an int become Integers, everything else a Double
+     * @param text the literal as written
+     * @return the value of the literal
+     */
+    static Object numberValue(String text) {
+        // Nine digits always fit in an int
+        if (text.length() <= 9 && text.indexOf('.') == -1) return Numbers.box(Integer.parseInt(text));
+        return Double.parseDouble(text);
     }
 
     /**
      * Scans through a string literal and adds it to the list of tokens
      */
     private void string() {
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
-            advance();
-        }
-
-        if (isAtEnd()) {
+        int close = source.indexOf('"', current);
+        if (close == -1 || close >= end) {
+            skipTo(-1);
             errorReporter.error(line, "Unterminated string.");
             return;
         }
 
         // Advances past the closing quote
+        skipTo(close);
         advance();
 
         // Trim the surrounding quotes.
@@ -177,6 +243,52 @@ class Scanner {
         addToken(TokenType.STRING, value);
     }
 
+    /**
+     * Skips the body of a block comment, including the closing characters
+     */
+    private void blockComment() {
+        int close = source.indexOf("*/", current);
+        if (close == -1 || close + 2 > end) {
+            skipTo(-1);
+            errorReporter.error(line, "Unterminated block comment.");
+            return;
+        }
+
+        skipTo(close);
+        current += 2;
+    }
+
+    /**
+     * Skips spaces, tabs, carriage returns and newlines in one tight loop
+     */
+    private void skipWhitespace() {
+        while (current < end) {
+            char c = source.charAt(current);
+            if (c == '\n') line++;
+            else if (c != ' ' && c != '\r' && c != '\t') return;
+            current++;
+        }
+    }
+
+    /**
+     * Moves to an index found by a bulk search, counting the newlines passed over.
+     * String.indexOf is a JIT intrinsic that compares many characters per instruction,
+     * so both the search and the newline count avoid per-character peek()/advance() calls
+     * @param index the index to move to, or -1 (or anything past the end) for the end of the scanned range
+     */
+    private void skipTo(int index) {
+        int target = index == -1 || index > end ? end : index;
+
+        // Bounded by the target, so a long line is not searched again past it for every token
+        int newline = source.indexOf('\n', current, target);
+        while (newline != -1) {
+            line++;
+            newline = source.indexOf('\n', newline + 1, target);
+        }
+
+        current = target;
+    }
+
     /**
      * Determines if the current character matches the expected character
      * @param expected the character to match
@@ -204,7 +316,7 @@ class Scanner {
      * @return the character at the next index
      */
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -242,7 +354,7 @@ class Scanner {
      * @return true if all characters have been consumed, false otherwise
      */
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     /**
@@ -267,8 +379,29 @@ class Scanner {
      * @param literal the literal expression of the token
      */
     private void addToken(TokenType type, Object literal) {
+        if (literal == null && type.literal != null) {
+            tokens.add(fixedToken(type));
+            return;
+        }
+
         String text = source.substring(start, current);
         tokens.add(new Token(type, text, literal, line));
     }
+
+    /**
+     * Provides the shared token for a fixed-spelling TokenType on the current line.
+     * Tokens are immutable, so every occurrence of the same type on the same line can be one object
+     * whose lexeme is the TokenType's own literal. Only identifiers, numbers and strings need their own tokens
+     * @param type the TokenType of the token, which must have a literal
+     * @return the flyweight token
+     */
+    private Token fixedToken(TokenType type) {
+        Token token = fixedTokens[type.ordinal()];
+        if (token == null || token.line() != line) {
+            token = new Token(type, type.literal, null, line);
+            fixedTokens[type.ordinal()] = token;
+        }
+        return token;
+    }
 }
 
@@ -0,0 +1,199 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.view.ErrorReporter;
+import com.seanjwalker.lox.view.OutputPrinter;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs the Lox scripts under a directory and runs them again as they change.
+ * Every script is run once at the start. After that, file events are gathered until none has come
+ * for a short while, since saving one file often raises several, and then only the scripts whose content
+ * is different from when they were last run are scanned, parsed and evaluated again.
+ * Only a digest of each script is kept, so a file touched without changing is not run again.
+ * A script that fails to run, even by overflowing the stack, is reported and the others are still watched
+ */
+class ScriptWatcher {
+    /**
+     * How long file events must stop before the scripts they touched are run
+     */
+    static final long DEBOUNCE_MILLIS = 25;
+
+    private static final String EXTENSION = ".lox";
+
+    private final AppController appController;
+    private final OutputPrinter outputPrinter;
+    private final ErrorReporter errorReporter;
+    private final Path root;
+    private final Map<Path, byte[]> hashes = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param appController the controller that runs each script, with its options
+     * @param outputPrinter where results are printed
+     * @param errorReporter where errors are reported
+     * @param root the directory watched, along with every directory under it
+     */
+    ScriptWatcher(AppController appController, OutputPrinter outputPrinter, ErrorReporter errorReporter, Path root) {
+        this.appController = appController;
+        this.outputPrinter = outputPrinter;
+        this.errorReporter = errorReporter;
+        this.root = root;
+    }
+
+    /**
+     * Runs every script, then watches for changes until the thread is interrupted
+     * @throws IOException if the directory cannot be read or watched
+     */
+    void run() throws IOException {
+        try (WatchService watchService = root.getFileSystem().newWatchService()) {
+            Set<Path> changed = new TreeSet<>();
+            register(root, watchService, changed);
+            refresh(changed);
+
+            while (true) {
+                WatchKey key = watchService.take();
+                changed.clear();
+                do {
+                    collect(key, watchService, changed);
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                refresh(changed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Watches a directory and every directory under it, adding the scripts found to be run
+     * @param directory the top directory
+     * @param watchService the service the directories are registered with
+     * @param changed the scripts to run
+     * @throws IOException if a directory cannot be read or watched
+     */
+    private void register(Path directory, WatchService watchService, Set<Path> changed) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>)paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } else if (isScript(path)) {
+                    changed.add(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the scripts a key's events touched to be checked
+     * @param key the key of a watched directory
+     * @param watchService the service new directories are registered with
+     * @param changed the scripts to check
+     * @throws IOException if a new directory cannot be read or watched
+     */
+    private void collect(WatchKey key, WatchService watchService, Set<Path> changed) throws IOException {
+        Path directory = (Path)key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so every script has to be checked
+                changed.addAll(hashes.keySet());
+                register(directory, watchService, changed);
+                continue;
+            }
+
+            Path path = directory.resolve((Path)event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path, watchService, changed);
+            } else if (isScript(path)) {
+                changed.add(path);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                // A deleted directory takes its scripts with it
+                for (Path script : hashes.keySet()) {
+                    if (script.startsWith(path)) changed.add(script);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Runs each script whose content differs from when it was last run, in order of path,
+     * and forgets scripts that were deleted
+     * @param changed the scripts to check
+     */
+    private void refresh(Set<Path> changed) {
+        for (Path path : changed) {
+            String name = root.relativize(path).toString();
+            if (!Files.isRegularFile(path)) {
+                if (hashes.remove(path) != null) outputPrinter.println("== " + name + " removed ==");
+                continue;
+            }
+
+            byte[] content;
+            try {
+                content = Files.readAllBytes(path);
+            } catch (IOException e) {
+                // The file went away or cannot be read yet; a later event will bring it back
+                outputPrinter.printError(e);
+                continue;
+            }
+            byte[] hash = hash(content);
+            if (Arrays.equals(hashes.put(path, hash), hash)) continue;
+
+            Metrics.scriptsRun.increment();
+            outputPrinter.println("== " + name + " ==");
+            try {
+                appController.run(appController.parseProgram(new String(content, Charset.defaultCharset())));
+            } catch (RuntimeException | StackOverflowError e) {
+                // One broken script must not end the watch over the others
+                outputPrinter.flush();
+                outputPrinter.printError("Could not run " + name + ": " + e);
+            }
+            errorReporter.hadError = false;
+            errorReporter.hadRuntimeError = false;
+        }
+        outputPrinter.flush();
+    }
+
+    /**
+     * Determines whether a path names a Lox script
+     * @param path the path
+     * @return true if the file name ends in .lox
+     */
+    private static boolean isScript(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null && fileName.toString().endsWith(EXTENSION);
+    }
+
+    /**
+     * Digests a script's content
+     * @param content the bytes of the script
+     * @return the SHA-256 digest
+     */
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
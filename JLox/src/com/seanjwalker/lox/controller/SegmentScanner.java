@@ -0,0 +1,261 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Metrics;
+import com.seanjwalker.lox.model.TokenType;
+import com.seanjwalker.lox.view.ErrorReporter;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Controller for scanning a UTF-8 source held in a MemorySegment, such as a mapped file, into a TokenSegment.
+ * It follows the same rules as Scanner and reports the same errors, but reads bytes at long offsets,
+ * so the source may be larger than a String can hold and is never copied onto the heap.
+ * Every character with a meaning in Lox is ASCII, so multi-byte characters only occur inside
+ * strings and comments, or as a single unexpected character
+ */
+class SegmentScanner {
+    private final MemorySegment source;
+    private final TokenSegment tokens;
+    private final ErrorReporter errorReporter;
+    private final long end;
+    private long start = 0;
+    private long current = 0;
+    private int line = 1;
+
+    /**
+     * Constructor
+     * @param source the Lox source code scanned, encoded as UTF-8
+     * @param tokens the array the tokens are written to
+     * @param errorReporter the controller to handle errors
+     */
+    SegmentScanner(MemorySegment source, TokenSegment tokens, ErrorReporter errorReporter) {
+        this.source = source;
+        this.tokens = tokens;
+        this.errorReporter = errorReporter;
+        this.end = source.byteSize();
+    }
+
+    /**
+     * Scans all tokens in the source, ending with EOF
+     */
+    void scanTokens() {
+        while (!isAtEnd()) {
+            skipWhitespace();
+            if (isAtEnd()) break;
+
+            // We are at the beginning of the next lexeme.
+            start = current;
+            scanToken();
+        }
+
+        start = current;
+        addToken(TokenType.EOF);
+        Metrics.tokensScanned.add(tokens.size());
+    }
+
+    /**
+     * Adds a token to the array based on what is encountered
+     */
+    private void scanToken() {
+        byte c = advance();
+        switch (c) {
+            case '!' -> addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
+            case '=' -> addToken(match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
+            case '<' -> addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
+            case '>' -> addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
+            case '/' -> {
+                if (match('/')) {
+                    // A comment goes until the end of the line.
+                    while (!isAtEnd() && peek() != '\n') current++;
+                } else if (match('*')) {
+                    blockComment();
+                } else {
+                    addToken(TokenType.SLASH);
+                }
+            }
+            case '*' -> {
+                if (match('/')) {
+                    // A block comment consumes its own closing */, so this one has no opening
+                    errorReporter.error(line, "Unexpected block comment end");
+                } else {
+                    addToken(TokenType.STAR);
+                }
+            }
+            case '"' -> string();
+            default -> {
+                TokenType type = c >= 0 ? TokenType.of((char)c) : null;
+                if (type != null) addToken(type);
+                else if (isDigit(c)) number();
+                else if (isAlpha(c)) identifier();
+                else {
+                    // A character outside ASCII is one error however many bytes encode it
+                    while (!isAtEnd() && (peek() & 0xC0) == 0x80) current++;
+                    errorReporter.error(line, "Unexpected character.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines whether a token is an identifier and adds it appropriately
+     */
+    private void identifier() {
+        while (isAlphaNumeric(peek())) advance();
+
+        // Keywords are short, so only short identifiers are worth decoding to look up
+        TokenType type = current - start <= 6 ? TokenType.keyword(TokenSegment.decode(source, start, current)) : null;
+        addToken(type != null ? type : TokenType.IDENTIFIER);
+    }
+
+    /**
+     * Scans through a number literal and adds it to the array.
+     * Its value is computed when the token is read back
+     */
+    private void number() {
+        while (isDigit(peek())) advance();
+
+        // Look for a fractional part.
+        if (peek() == '.' && isDigit(peekNext())) {
+            // Consume the "." with first advance()
+            do advance();
+            while (isDigit(peek()));
+        }
+
+        addToken(TokenType.NUMBER);
+    }
+
+    /**
+     * Scans through a string literal and adds it to the array
+     */
+    private void string() {
+        while (!isAtEnd() && peek() != '"') {
+            if (peek() == '\n') line++;
+            current++;
+        }
+
+        if (isAtEnd()) {
+            errorReporter.error(line, "Unterminated string.");
+            return;
+        }
+
+        // The closing quote
+        advance();
+        addToken(TokenType.STRING);
+    }
+
+    /**
+     * Skips the body of a block comment, including the closing characters
+     */
+    private void blockComment() {
+        while (current + 1 < end && !(peek() == '*' && peekNext() == '/')) {
+            if (peek() == '\n') line++;
+            current++;
+        }
+
+        if (current + 1 >= end) {
+            if (!isAtEnd() && peek() == '\n') line++;
+            current = end;
+            errorReporter.error(line, "Unterminated block comment.");
+            return;
+        }
+
+        current += 2;
+    }
+
+    /**
+     * Skips spaces, tabs, carriage returns and newlines in one tight loop
+     */
+    private void skipWhitespace() {
+        while (current < end) {
+            byte c = source.get(ValueLayout.JAVA_BYTE, current);
+            if (c == '\n') line++;
+            else if (c != ' ' && c != '\r' && c != '\t') return;
+            current++;
+        }
+    }
+
+    /**
+     * Determines if the current byte matches the expected character
+     * @param expected the character to match
+     * @return true if they match, false otherwise
+     */
+    private boolean match(char expected) {
+        if (isAtEnd()) return false;
+        if (source.get(ValueLayout.JAVA_BYTE, current) != expected) return false;
+
+        current++;
+        return true;
+    }
+
+    /**
+     * Returns the current byte without advancing the offset
+     * @return the byte at the current offset
+     */
+    private byte peek() {
+        if (isAtEnd()) return '\0';
+        return source.get(ValueLayout.JAVA_BYTE, current);
+    }
+
+    /**
+     * Returns the next byte without advancing the offset
+     * @return the byte at the next offset
+     */
+    private byte peekNext() {
+        if (current + 1 >= end) return '\0';
+        return source.get(ValueLayout.JAVA_BYTE, current + 1);
+    }
+
+    /**
+     * Determines if a byte is an alphabetic character (a-z, A-Z, or _)
+     * @param c the byte to check
+     * @return true if the byte is alphabetic, false otherwise
+     */
+    private boolean isAlpha(byte c) {
+        return (c >= 'a' && c <= 'z') ||
+                (c >= 'A' && c <= 'Z') ||
+                c == '_';
+    }
+
+    /**
+     * Determines if a byte is alphanumeric
+     * @param c the byte to check
+     * @return true if the byte is alphanumeric, false otherwise
+     */
+    private boolean isAlphaNumeric(byte c) {
+        return isAlpha(c) || isDigit(c);
+    }
+
+    /**
+     * Determines if a byte is a digit
+     * @param c the byte to check
+     * @return true if the byte is a digit, false otherwise
+     */
+    private boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Determines if all bytes have been consumed
+     * @return true if all bytes have been consumed, false otherwise
+     */
+    private boolean isAtEnd() {
+        return current >= end;
+    }
+
+    /**
+     * Returns the current byte and advances the offset
+     * @return the byte at the current offset
+     */
+    private byte advance() {
+        return source.get(ValueLayout.JAVA_BYTE, current++);
+    }
+
+    /**
+     * Adds a token spanning from the start of the lexeme to the current offset
+     * @param type the TokenType of the token
+     */
+    private void addToken(TokenType type) {
+        tokens.add(type, line, start, current);
+    }
+}
@@ -0,0 +1,234 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Expression;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The subtrees of the previous parse, kept so that a parse after an edit can reuse every one the edit did not touch.
+ * Groupings and comma-separated segments are recorded with the token range they were parsed from.
+ * Their parse depends on nothing outside that range, so a subtree whose range lies outside the edited tokens
+ * is exactly what parsing those tokens again would produce.
+ * Recorded subtrees form a tree of their own, and each one keeps its children at positions relative to itself,
+ * so a reused subtree brings all of its children along without renumbering them
+ */
+class SubtreeCache {
+    /**
+     * The grammar rules whose results are recorded
+     */
+    enum Kind { SEGMENT, GROUPING }
+
+    /**
+     * A parsed subtree and the tokens it came from
+     * @param kind the grammar rule that produced the subtree
+     * @param expression the subtree
+     * @param length the number of tokens the subtree was parsed from
+     * @param depends the number of tokens examined, including any looked at past the end
+     * @param children the subtrees recorded within this one, at positions relative to its start
+     */
+    private record Entry(Kind kind, Expression expression, int length, int depends, Placed[] children) {}
+
+    /**
+     * An entry at a token position
+     * @param start the index of the entry's first token
+     * @param entry the entry
+     */
+    private record Placed(int start, Entry entry) {}
+
+    private static final Placed[] NONE = new Placed[0];
+
+    private Placed[] roots = NONE;
+    private Placed[] oldRoots = NONE;
+    private final Deque<List<Placed>> levels = new ArrayDeque<>();
+
+    // The previous token indices [editStart, oldEditEnd) were replaced by the indices [editStart, newEditEnd)
+    private int editStart;
+    private int oldEditEnd;
+    private int newEditEnd;
+
+    /**
+     * Prepares for a parse after the given tokens were replaced
+     * @param start the index of the first token replaced
+     * @param oldEnd the index after the last replaced token, before the edit
+     * @param newEnd the index after the last replacing token, after the edit
+     */
+    void edit(int start, int oldEnd, int newEnd) {
+        editStart = start;
+        oldEditEnd = oldEnd;
+        newEditEnd = newEnd;
+
+        oldRoots = roots;
+        roots = NONE;
+        levels.clear();
+        levels.push(new ArrayList<>());
+    }
+
+    /**
+     * Finds a subtree from the previous parse that can stand in for parsing from the given token
+     * @param index the index of the token the parse is at
+     * @param kind the grammar rule about to be parsed
+     * @return the subtree and its length, or null if it has to be parsed
+     */
+    Reused reuse(int index, Kind kind) {
+        int old = oldIndex(index);
+        if (old == -1) return null;
+
+        Placed[] level = oldRoots;
+        int base = 0;
+        while (true) {
+            Placed placed = find(level, old - base);
+            if (placed == null) return null;
+
+            Entry entry = placed.entry();
+            int start = base + placed.start();
+            if (old > start && old >= start + entry.length()) return null;
+
+            if (start == old && entry.kind() == kind) {
+                if (!isValid(start, entry)) return null;
+                levels.element().add(new Placed(index, entry));
+                return new Reused(entry.expression(), entry.length());
+            }
+
+            level = entry.children();
+            base = start;
+        }
+    }
+
+    /**
+     * Starts recording a subtree
+     */
+    void begin() {
+        levels.push(new ArrayList<>());
+    }
+
+    /**
+     * Records a subtree once it has been parsed
+     * @param kind the grammar rule that produced the subtree
+     * @param expression the subtree
+     * @param start the index of its first token
+     * @param end the index after its last token
+     * @param depends the index after the last token examined
+     */
+    void end(Kind kind, Expression expression, int start, int end, int depends) {
+        List<Placed> children = levels.pop();
+        Placed[] relative = new Placed[children.size()];
+        for (int i = 0; i < relative.length; i++) {
+            Placed child = children.get(i);
+            relative[i] = new Placed(child.start() - start, child.entry());
+        }
+        levels.element().add(new Placed(start, new Entry(kind, expression, end - start, depends - start, relative)));
+    }
+
+    /**
+     * Keeps the subtrees recorded by a parse that finished
+     */
+    void finish() {
+        roots = levels.getLast().toArray(NONE);
+        oldRoots = NONE;
+        levels.clear();
+    }
+
+    /**
+     * Keeps what is still usable after a parse that stopped at an error.
+     * Everything recorded before the error is kept, and so is every subtree from the previous parse
+     * that lies past it and outside the edit, so the next parse does not start over from the error onward
+     */
+    void abandon() {
+        List<Placed> kept = new ArrayList<>();
+        for (Iterator<List<Placed>> it = levels.descendingIterator(); it.hasNext(); ) kept.addAll(it.next());
+
+        int from = 0;
+        for (Placed placed : kept) from = Math.max(from, placed.start() + placed.entry().length());
+        carry(oldRoots, 0, from, kept);
+
+        roots = kept.toArray(NONE);
+        oldRoots = NONE;
+        levels.clear();
+    }
+
+    /**
+     * Collects the largest subtrees of the previous parse that are still valid and begin at or after a token
+     * @param level the entries to search
+     * @param base the old index the level's positions are relative to
+     * @param from the first new index a collected subtree may begin at
+     * @param kept the list the subtrees are added to, at their new positions
+     */
+    private void carry(Placed[] level, int base, int from, List<Placed> kept) {
+        for (Placed placed : level) {
+            int start = base + placed.start();
+            Entry entry = placed.entry();
+            int index = newIndex(start);
+
+            if (index >= from && isValid(start, entry)) {
+                kept.add(new Placed(index, entry));
+            } else if (newIndex(start + entry.depends()) > from || !isValid(start, entry)) {
+                carry(entry.children(), start, from, kept);
+            }
+        }
+    }
+
+    /**
+     * Determines whether a subtree of the previous parse examined none of the replaced tokens
+     * @param start the old index of the subtree's first token
+     * @param entry the subtree
+     * @return true if the subtree can be reused
+     */
+    private boolean isValid(int start, Entry entry) {
+        return start >= oldEditEnd || start + entry.depends() <= editStart;
+    }
+
+    /**
+     * Converts a token index after the edit to the same token's index before it
+     * @param index the index after the edit
+     * @return the index before the edit, or -1 if the token is new
+     */
+    private int oldIndex(int index) {
+        if (index < editStart) return index;
+        if (index >= newEditEnd) return index - newEditEnd + oldEditEnd;
+        return -1;
+    }
+
+    /**
+     * Converts a token index before the edit to the same token's index after it
+     * @param index the index before the edit
+     * @return the index after the edit, or -1 if the token was replaced
+     */
+    private int newIndex(int index) {
+        if (index < editStart) return index;
+        if (index >= oldEditEnd) return index - oldEditEnd + newEditEnd;
+        return -1;
+    }
+
+    /**
+     * Binary search for the last entry of a level that begins at or before a position
+     * @param level the entries, in order of position
+     * @param position the position relative to the level
+     * @return the entry, or null if every entry begins after the position
+     */
+    private static Placed find(Placed[] level, int position) {
+        int low = 0;
+        int high = level.length - 1;
+        Placed found = null;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (level[middle].start() <= position) {
+                found = level[middle];
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * A reused subtree
+     * @param expression the subtree
+     * @param length the number of tokens the parser skips over
+     */
+    record Reused(Expression expression, int length) {}
+}
@@ -0,0 +1,68 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Token;
+import com.seanjwalker.lox.model.TokenType;
+
+import java.util.function.Supplier;
+
+/**
+ * A small ring buffer of tokens between a Scanner and a Parser.
+ * Tokens are scanned only when the parser asks for them, and only the most recent few are kept,
+ * so the memory held for tokens is the same however long the source is.
+ * Positions are compared by their difference, so they may wrap past Integer.MAX_VALUE on sources with more tokens
+ */
+class TokenRing {
+    // The parser looks at the current token and the one before it; the rest is slack.
+    // A power of two, so positions map to slots by masking even after they wrap
+    private static final int CAPACITY = 8;
+
+    private final Supplier<Token> source;
+    private final Token[] buffer = new Token[CAPACITY];
+    private int scanned = 0;
+    private boolean finished = false;
+
+    /**
+     * Constructor
+     * @param scanner the scanner the tokens are pulled from
+     */
+    TokenRing(Scanner scanner) {
+        this(scanner::nextToken);
+    }
+
+    /**
+     * Constructor for tokens from somewhere other than a Scanner
+     * @param source gives each token in turn, and EOF once the source is consumed
+     */
+    TokenRing(Supplier<Token> source) {
+        this.source = source;
+    }
+
+    /**
+     * Gives the token at a position in the source, scanning up to it if needed.
+     * Past the end of the source this is the EOF token
+     * @param index the position of the token among all tokens of the source
+     * @return the token
+     * @throws IllegalStateException if the token has already left the buffer
+     */
+    Token get(int index) {
+        while (index - scanned >= 0 && !finished) {
+            Token token = source.get();
+            buffer[scanned & (CAPACITY - 1)] = token;
+            scanned++;
+            finished = token.type == TokenType.EOF;
+        }
+
+        if (index - scanned >= 0) index = scanned - 1;
+        if (scanned - index > CAPACITY) {
+            throw new IllegalStateException("Token " + index + " is no longer buffered");
+        }
+        return buffer[index & (CAPACITY - 1)];
+    }
+
+    /**
+     * Scans the rest of the source without keeping the tokens, so that every scanning error gets reported
+     */
+    void drain() {
+        while (!finished) finished = source.get().type == TokenType.EOF;
+    }
+}
@@ -0,0 +1,154 @@
+package com.seanjwalker.lox.controller;
+
+import com.seanjwalker.lox.model.Token;
+import com.seanjwalker.lox.model.TokenType;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * A growable array of tokens stored off the heap.
+ * Each token is a fixed-size record of its type, its line and where its lexeme lies in the source,
+ * so storing one costs no objects and nothing for the garbage collector to trace.
+ * Token objects are only made when the parser asks for them, and only a handful are alive at a time.
+ * The records live in a confined arena of their own; growing the array copies it into a bigger arena
+ * and frees the old one at once, and closing the array frees the rest.
+ * Indices are longs, so the number of tokens is limited by memory rather than by the size of a Java array
+ */
+class TokenSegment implements AutoCloseable {
+    private static final long TYPE = 0;
+    private static final long LINE = 4;
+    private static final long START = 8;
+    private static final long END = 16;
+    private static final long RECORD_SIZE = 24;
+
+    private static final long INITIAL_CAPACITY = 1024;
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private Arena arena;
+    private MemorySegment records;
+    private long capacity;
+    private long size = 0;
+
+    /**
+     * Constructor for an empty array
+     */
+    TokenSegment() {
+        capacity = INITIAL_CAPACITY;
+        arena = Arena.ofConfined();
+        records = arena.allocate(capacity * RECORD_SIZE, Long.BYTES);
+    }
+
+    /**
+     * Appends a token
+     * @param type the TokenType of the token
+     * @param line the line the token is on
+     * @param start the offset of the lexeme's first byte in the source
+     * @param end the offset after the lexeme's last byte
+     */
+    void add(TokenType type, int line, long start, long end) {
+        if (size == capacity) grow();
+
+        long offset = size * RECORD_SIZE;
+        records.set(ValueLayout.JAVA_INT, offset + TYPE, type.ordinal());
+        records.set(ValueLayout.JAVA_INT, offset + LINE, line);
+        records.set(ValueLayout.JAVA_LONG, offset + START, start);
+        records.set(ValueLayout.JAVA_LONG, offset + END, end);
+        size++;
+    }
+
+    /**
+     * Gives the number of tokens stored
+     * @return the number of tokens
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Gives the type of a token
+     * @param index the index of the token
+     * @return the TokenType of the token
+     */
+    TokenType type(long index) {
+        return TYPES[records.get(ValueLayout.JAVA_INT, index * RECORD_SIZE + TYPE)];
+    }
+
+    /**
+     * Gives the tokens in order as Token objects, made one at a time as they are asked for.
+     * Past the last token the supplier keeps giving the last one, which is EOF once scanning has finished
+     * @param source the source the lexemes are read from
+     * @return a supplier of each token in turn
+     */
+    Supplier<Token> cursor(MemorySegment source) {
+        Token[] fixedTokens = new Token[TYPES.length];
+        return new Supplier<>() {
+            private long next = 0;
+
+            @Override
+            public Token get() {
+                long index = Math.min(next++, size - 1);
+                long offset = index * RECORD_SIZE;
+                TokenType type = TYPES[records.get(ValueLayout.JAVA_INT, offset + TYPE)];
+                int line = records.get(ValueLayout.JAVA_INT, offset + LINE);
+
+                // Tokens spelled the same way every time are shared per line, as Scanner shares them
+                if (type.literal != null) {
+                    Token token = fixedTokens[type.ordinal()];
+                    if (token == null || token.line() != line) {
+                        token = new Token(type, type.literal, null, line);
+                        fixedTokens[type.ordinal()] = token;
+                    }
+                    return token;
+                }
+
+                long start = records.get(ValueLayout.JAVA_LONG, offset + START);
+                long end = records.get(ValueLayout.JAVA_LONG, offset + END);
+                String lexeme = decode(source, start, end);
+                Object literal = switch (type) {
+                    case NUMBER -> Scanner.numberValue(lexeme);
+                    case STRING -> lexeme.substring(1, lexeme.length() - 1);
+                    default -> null;
+                };
+                return new Token(type, lexeme, literal, line);
+            }
+        };
+    }
+
+    /**
+     * Frees the records
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * Doubles the capacity, moving the records to a new arena and freeing the old one
+     */
+    private void grow() {
+        Arena grown = Arena.ofConfined();
+        MemorySegment moved = grown.allocate(2 * capacity * RECORD_SIZE, Long.BYTES);
+        MemorySegment.copy(records, 0, moved, 0, size * RECORD_SIZE);
+        arena.close();
+
+        arena = grown;
+        records = moved;
+        capacity *= 2;
+    }
+
+    /**
+     * Reads part of a UTF-8 source as a string
+     * @param source the source
+     * @param start the offset of the first byte
+     * @param end the offset after the last byte
+     * @return the text between the offsets
+     */
+    static String decode(MemorySegment source, long start, long end) {
+        byte[] bytes = source.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
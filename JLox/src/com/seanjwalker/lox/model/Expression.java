@@ -16,6 +16,13 @@ public abstract class Expression {
          */
         R visit(Binary expression);
 
+        /**
+         * Visit method for a Conditional expression
+         * @param expression the conditional expression visited
+         * @return some result of type R
+         */
+        R visit(Conditional expression);
+
         /**
          * Visit method for a Grouping
          * @param expression the grouping expression visited
@@ -30,12 +37,33 @@ public abstract class Expression {
          */
         R visit(Literal expression);
 
+        /**
+         * Visit method for a Logical expression
+         * @param expression the logical expression visited
+         * @return some result of type R
+         */
+        R visit(Logical expression);
+
+        /**
+         * Visit method for a Sequence expression
+         * @param expression the sequence expression visited
+         * @return some result of type R
+         */
+        R visit(Sequence expression);
+
         /**
          * Visit method for a Unary expression
          * @param expression the unary expression visited
          * @return some result of type R
          */
         R visit(Unary expression);
+
+        /**
+         * Visit method for a Variable expression
+         * @param expression the variable expression visited
+         * @return some result of type R
+         */
+        R visit(Variable expression);
     }
 
     /**
@@ -70,6 +98,41 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * Represents a choice between two expressions, of which only the chosen one is evaluated
+     */
+    public static class Conditional extends Expression {
+        public final Expression condition;
+        public final Token operator;
+        public final Expression thenBranch;
+        public final Expression elseBranch;
+
+        /**
+         * Constructor
+         * @param condition the expression whose truthiness makes the choice
+         * @param operator the ? token, where errors in the choice are reported
+         * @param thenBranch the expression chosen when the condition is truthy
+         * @param elseBranch the expression chosen when the condition is falsey
+         */
+        public Conditional(Expression condition, Token operator, Expression thenBranch, Expression elseBranch) {
+            this.condition = condition;
+            this.operator = operator;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        /**
+         * Accepts an Expression Visitor for the visitor pattern
+         * @param visitor the expression visitor
+         * @return the result of visiting the expression
+         * @param <R> the type produced by the visitor
+         */
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+
     /**
      * Represents a grouping to contain an operation to preserve order of operations
      */
@@ -122,6 +185,66 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * Represents an and or or of two operands, where the right operand is only evaluated
+     * if the left one does not already decide the result
+     */
+    public static class Logical extends Expression {
+        public final Expression left;
+        public final Token operator;
+        public final Expression right;
+
+        /**
+         * Constructor
+         * @param left the operand evaluated first
+         * @param operator the and or or keyword
+         * @param right the operand evaluated only when needed
+         */
+        public Logical(Expression left, Token operator, Expression right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        /**
+         * Accepts an Expression Visitor for the visitor pattern
+         * @param visitor the expression visitor
+         * @return the result of visiting the expression
+         * @param <R> the type produced by the visitor
+         */
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+
+    /**
+     * Represents comma-separated expressions evaluated in order, whose value is the value of the last one.
+     * The expressions are held flat, so a long list makes a wide node rather than a deep tree
+     */
+    public static class Sequence extends Expression {
+        public final Expression[] expressions;
+
+        /**
+         * Constructor
+         * @param expressions the expressions in the order they are written, at least two of them
+         */
+        public Sequence(Expression[] expressions) {
+            this.expressions = expressions;
+        }
+
+        /**
+         * Accepts an Expression Visitor for the visitor pattern
+         * @param visitor the expression visitor
+         * @return the result of visiting the expression
+         * @param <R> the type produced by the visitor
+         */
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+
     /**
      * Represents one operand paired with an operator
      */
@@ -151,6 +274,32 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * Represents a named input to the expression
+     */
+    public static class Variable extends Expression {
+        public final Token name;
+
+        /**
+         * Constructor
+         * @param name the identifier naming the input
+         */
+        public Variable(Token name) {
+            this.name = name;
+        }
+
+        /**
+         * Accepts an Expression Visitor for the visitor pattern
+         * @param visitor the expression visitor
+         * @return the result of visiting the expression
+         * @param <R> the type produced by the visitor
+         */
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+
     /**
      * Accepts an Expression Visitor for the visitor pattern
      * @param visitor the expression visitor
@@ -0,0 +1,93 @@
+package com.seanjwalker.lox.model;
+
+/**
+ * Creates the nodes of syntax trees.
+ * Nodes are immutable, so the literals true, false and nil are shared constants
+ */
+public class ExpressionFactory {
+    private static final Expression.Literal TRUE = new Expression.Literal(true);
+    private static final Expression.Literal FALSE = new Expression.Literal(false);
+    private static final Expression.Literal NIL = new Expression.Literal(null);
+
+    /**
+     * Creates a binary expression
+     * @param left the first operand
+     * @param operator the operator acting on the operands
+     * @param right the second operand
+     * @return the binary expression
+     */
+    public Expression binary(Expression left, Token operator, Expression right) {
+        return new Expression.Binary(left, operator, right);
+    }
+
+    /**
+     * Creates a conditional expression
+     * @param condition the expression that makes the choice
+     * @param operator the ? token
+     * @param thenBranch the expression chosen when the condition is truthy
+     * @param elseBranch the expression chosen when the condition is falsey
+     * @return the conditional expression
+     */
+    public Expression conditional(Expression condition, Token operator, Expression thenBranch, Expression elseBranch) {
+        return new Expression.Conditional(condition, operator, thenBranch, elseBranch);
+    }
+
+    /**
+     * Creates a grouping
+     * @param expression the expression contained in the grouping
+     * @return the grouping
+     */
+    public Expression grouping(Expression expression) {
+        return new Expression.Grouping(expression);
+    }
+
+    /**
+     * Creates a literal
+     * @param value the value of the literal
+     * @return the literal
+     */
+    public Expression literal(Object value) {
+        if (value == null) return NIL;
+        if (value instanceof Boolean) return (boolean)value ? TRUE : FALSE;
+        return new Expression.Literal(value);
+    }
+
+    /**
+     * Creates a logical expression
+     * @param left the operand evaluated first
+     * @param operator the and or or keyword
+     * @param right the operand evaluated only when needed
+     * @return the logical expression
+     */
+    public Expression logical(Expression left, Token operator, Expression right) {
+        return new Expression.Logical(left, operator, right);
+    }
+
+    /**
+     * Creates a sequence. The factory keeps the array, which must not be changed afterwards
+     * @param expressions the expressions in the order they are written
+     * @return the sequence
+     */
+    public Expression sequence(Expression[] expressions) {
+        return new Expression.Sequence(expressions);
+    }
+
+    /**
+     * Creates a unary expression
+     * @param operator the operator acting on the operand
+     * @param right the operand
+     * @return the unary expression
+     */
+    public Expression unary(Token operator, Expression right) {
+        return new Expression.Unary(operator, right);
+    }
+
+    /**
+     * Creates a variable
+     * @param name the identifier naming the input
+     * @return the variable
+     */
+    public Expression variable(Token name) {
+        return new Expression.Variable(name);
+    }
+}
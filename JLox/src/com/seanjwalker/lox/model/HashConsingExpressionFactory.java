@@ -0,0 +1,156 @@
+package com.seanjwalker.lox.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Creates syntax trees in which structurally equal subtrees are one shared node, turning the tree into a DAG.
+ * Children are always canonical by the time their parent is created, so two nodes are structurally equal
+ * exactly when they have the same kind, the same operator or value, and identical children.
+ * That makes each lookup key shallow, and its hash is computed once when the key is built.
+ * A shared node keeps the tokens of its first occurrence, so errors in it report that occurrence's line
+ */
+public class HashConsingExpressionFactory extends ExpressionFactory {
+    private final Map<Key, Expression> nodes = new HashMap<>();
+    private final Set<Expression> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    @Override
+    public Expression binary(Expression left, Token operator, Expression right) {
+        return intern(new Key(Expression.Binary.class, operator.type, operator.lexeme, left, right),
+                () -> super.binary(left, operator, right));
+    }
+
+    @Override
+    public Expression conditional(Expression condition, Token operator, Expression thenBranch, Expression elseBranch) {
+        return intern(new Key(Expression.Conditional.class, operator.type, null, condition, thenBranch, elseBranch),
+                () -> super.conditional(condition, operator, thenBranch, elseBranch));
+    }
+
+    @Override
+    public Expression grouping(Expression expression) {
+        return intern(new Key(Expression.Grouping.class, null, null, expression, null),
+                () -> super.grouping(expression));
+    }
+
+    @Override
+    public Expression literal(Object value) {
+        if (value == null || value instanceof Boolean) return super.literal(value);
+        return intern(new Key(Expression.Literal.class, null, value, null, null),
+                () -> super.literal(value));
+    }
+
+    @Override
+    public Expression logical(Expression left, Token operator, Expression right) {
+        return intern(new Key(Expression.Logical.class, operator.type, null, left, right),
+                () -> super.logical(left, operator, right));
+    }
+
+    @Override
+    public Expression sequence(Expression[] expressions) {
+        // Lists compare their elements with equals, which for nodes is identity, as the key needs
+        return intern(new Key(Expression.Sequence.class, null, List.of(expressions), null, null),
+                () -> super.sequence(expressions));
+    }
+
+    @Override
+    public Expression unary(Token operator, Expression right) {
+        return intern(new Key(Expression.Unary.class, operator.type, operator.lexeme, right, null),
+                () -> super.unary(operator, right));
+    }
+
+    @Override
+    public Expression variable(Token name) {
+        return intern(new Key(Expression.Variable.class, null, name.lexeme, null, null),
+                () -> super.variable(name));
+    }
+
+    /**
+     * Provides the inner nodes that occur more than once in the trees created so far.
+     * Evaluators can compute these once per evaluation and reuse the result
+     * @return the shared nodes, compared by identity
+     */
+    public Set<Expression> sharedNodes() {
+        return Collections.unmodifiableSet(shared);
+    }
+
+    /**
+     * Drops the lookup table once no more nodes will be created, keeping the set of shared nodes
+     */
+    public void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * Returns the existing node for a key, or creates and records a new one
+     * @param key the shallow description of the node
+     * @param creator creates the node if none exists yet
+     * @return the canonical node
+     */
+    private Expression intern(Key key, Supplier<Expression> creator) {
+        Expression existing = nodes.get(key);
+        if (existing != null) {
+            // Leaves are cheaper to evaluate again than to look up
+            if (!(existing instanceof Expression.Literal) && !(existing instanceof Expression.Variable)) {
+                shared.add(existing);
+            }
+            return existing;
+        }
+
+        Expression created = creator.get();
+        nodes.put(key, created);
+        return created;
+    }
+
+    /**
+     * Shallow description of a node. Child nodes are compared by identity, everything else by equals
+     */
+    private static final class Key {
+        private final Class<?> kind;
+        private final TokenType type;
+        private final Object value;
+        private final Expression first;
+        private final Expression second;
+        private final Expression third;
+        private final int hash;
+
+        Key(Class<?> kind, TokenType type, Object value, Expression first, Expression second) {
+            this(kind, type, value, first, second, null);
+        }
+
+        Key(Class<?> kind, TokenType type, Object value, Expression first, Expression second, Expression third) {
+            this.kind = kind;
+            this.type = type;
+            this.value = value;
+            this.first = first;
+            this.second = second;
+            this.third = third;
+
+            int hash = kind.hashCode();
+            hash = 31 * hash + Objects.hashCode(type);
+            hash = 31 * hash + Objects.hashCode(value);
+            hash = 31 * hash + System.identityHashCode(first);
+            hash = 31 * hash + System.identityHashCode(second);
+            hash = 31 * hash + System.identityHashCode(third);
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key other)) return false;
+            return hash == other.hash && kind == other.kind && type == other.type
+                    && first == other.first && second == other.second && third == other.third
+                    && Objects.equals(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
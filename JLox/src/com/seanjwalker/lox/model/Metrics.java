@@ -0,0 +1,231 @@
+package com.seanjwalker.lox.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of live counters and histograms about the interpreter, for services that run it for a long time.
+ * Every metric is made of LongAdders, which spread concurrent updates over several cells instead of contending
+ * on one, so recording never takes a lock and threads running scripts do not slow each other down.
+ * Fixed metrics are the constants below; labelled ones are registered the first time they are asked for
+ */
+public final class Metrics {
+    /**
+     * The kinds of errors counted
+     */
+    public enum ErrorKind { SYNTAX, RUNTIME, BUDGET }
+
+    private static final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public static final Counter scriptsRun = counter("jlox_scripts_run_total",
+            "Scripts run through the whole pipeline.", "");
+    public static final Counter tokensScanned = counter("jlox_tokens_scanned_total",
+            "Tokens produced by the scanner.", "");
+    public static final Counter parses = counter("jlox_parses_total",
+            "Token streams parsed.", "");
+    public static final Counter nodesEvaluated = counter("jlox_nodes_evaluated_total",
+            "Syntax tree nodes evaluated.", "");
+
+    private static final Counter[] errors = new Counter[ErrorKind.values().length];
+
+    static {
+        for (ErrorKind kind : ErrorKind.values()) {
+            errors[kind.ordinal()] = counter("jlox_errors_total", "Errors reported, by kind.",
+                    "kind=\"" + kind.name().toLowerCase() + "\"");
+        }
+    }
+
+    private Metrics() {}
+
+    /**
+     * Gives the counter of errors of a kind
+     * @param kind the kind of error
+     * @return the counter
+     */
+    public static Counter errors(ErrorKind kind) {
+        return errors[kind.ordinal()];
+    }
+
+    /**
+     * Gives the latency histogram of a phase of running a script, creating it the first time
+     * @param phase the name of the phase
+     * @return the histogram
+     */
+    public static Histogram phaseLatency(String phase) {
+        String labels = "phase=\"" + phase + "\"";
+        Metric metric = metrics.computeIfAbsent(key("jlox_phase_latency_seconds", labels),
+                key -> new Histogram("jlox_phase_latency_seconds", "Time spent in each phase of a run.", labels));
+        return (Histogram)metric;
+    }
+
+    /**
+     * Gives the counter of requests to a cache that were or were not answered from it, creating it the first time.
+     * The hit ratio is the hits over the sum of both
+     * @param cache the name of the cache
+     * @param hit true for the counter of hits, false for the counter of misses
+     * @return the counter
+     */
+    public static Counter cacheRequests(String cache, boolean hit) {
+        String labels = "cache=\"" + cache + "\",result=\"" + (hit ? "hit" : "miss") + "\"";
+        Metric metric = metrics.computeIfAbsent(key("jlox_cache_requests_total", labels),
+                key -> new Counter("jlox_cache_requests_total", "Requests to a cache, by whether they hit.", labels));
+        return (Counter)metric;
+    }
+
+    /**
+     * Gives every metric, ordered by name and then labels, so metrics of the same name are next to each other
+     * @return the metrics
+     */
+    public static Collection<Metric> all() {
+        return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    /**
+     * Creates and registers a counter
+     * @param name the name of the metric
+     * @param help a description of the metric
+     * @param labels the labels of the metric, as name="value" pairs separated by commas
+     * @return the counter
+     */
+    private static Counter counter(String name, String help, String labels) {
+        Counter counter = new Counter(name, help, labels);
+        metrics.put(key(name, labels), counter);
+        return counter;
+    }
+
+    /**
+     * Gives the key a metric is registered under, so metrics that differ only in their labels are kept apart
+     * @param name the name of the metric
+     * @param labels the labels of the metric
+     * @return the name followed by the labels in braces
+     */
+    private static String key(String name, String labels) {
+        return name + '{' + labels + '}';
+    }
+
+    /**
+     * A named value with optional labels
+     */
+    public abstract static sealed class Metric permits Counter, Histogram {
+        public final String name;
+        public final String help;
+        public final String labels;
+
+        /**
+         * Constructor
+         * @param name the name of the metric
+         * @param help a description of the metric
+         * @param labels the labels of the metric, as name="value" pairs separated by commas
+         */
+        Metric(String name, String help, String labels) {
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+        }
+    }
+
+    /**
+     * A count that only goes up
+     */
+    public static final class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Constructor
+         * @param name the name of the counter
+         * @param help a description of the counter
+         * @param labels the labels of the counter, as name="value" pairs separated by commas
+         */
+        Counter(String name, String help, String labels) {
+            super(name, help, labels);
+        }
+
+        /**
+         * Adds one to the count
+         */
+        public void increment() {
+            count.increment();
+        }
+
+        /**
+         * Adds to the count
+         * @param amount the amount to add
+         */
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        /**
+         * Gives the count
+         * @return the count
+         */
+        public long value() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * A distribution of durations over fixed buckets.
+     * Each bucket is its own LongAdder, so recording is one search of the bounds and two uncontended additions
+     */
+    public static final class Histogram extends Metric {
+        // Upper bounds of the buckets in nanoseconds, from 10 microseconds to 10 seconds
+        private static final long[] BOUNDS = {
+                10_000, 50_000, 100_000, 500_000, 1_000_000, 5_000_000, 10_000_000,
+                50_000_000, 100_000_000, 500_000_000, 1_000_000_000, 10_000_000_000L};
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * Constructor
+         * @param name the name of the histogram
+         * @param help a description of the histogram
+         * @param labels the labels of the histogram, as name="value" pairs separated by commas
+         */
+        Histogram(String name, String help, String labels) {
+            super(name, help, labels);
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        /**
+         * Records one duration
+         * @param nanos the duration in nanoseconds
+         */
+        public void record(long nanos) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && nanos > BOUNDS[bucket]) bucket++;
+            buckets[bucket].increment();
+            sum.add(nanos);
+        }
+
+        /**
+         * Gives the upper bound of each bucket but the last, which has none
+         * @return the bounds in nanoseconds
+         */
+        public long[] bounds() {
+            return BOUNDS.clone();
+        }
+
+        /**
+         * Gives the number of durations in each bucket, not cumulative
+         * @return the count of each bucket, the last being the durations above every bound
+         */
+        public long[] counts() {
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < counts.length; i++) counts[i] = buckets[i].sum();
+            return counts;
+        }
+
+        /**
+         * Gives the total of every duration recorded
+         * @return the sum in nanoseconds
+         */
+        public long sum() {
+            return sum.sum();
+        }
+    }
+}
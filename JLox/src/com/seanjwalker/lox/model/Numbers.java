@@ -0,0 +1,167 @@
+package com.seanjwalker.lox.model;
+
+/**
+ * Arithmetic on Lox numbers.
+ * Every Lox number behaves as a double, but values that are provably integral are kept as Integer
+ * so that integer arithmetic stays in ints. An int result is only produced when the double result
+ * would have exactly the same value, so an operation on Integers overflows, divides or produces
+ * negative zero by promoting to Double
+ */
+public final class Numbers {
+    private static final int CACHE_LOW = -1024;
+    private static final int CACHE_HIGH = 1023;
+    private static final Integer[] cache = new Integer[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = i + CACHE_LOW;
+        }
+    }
+
+    private Numbers() {}
+
+    /**
+     * Boxes an int, reusing a cached box for small values
+     * @param value the value to box
+     * @return the boxed value
+     */
+    public static Integer box(int value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) return cache[value - CACHE_LOW];
+        return value;
+    }
+
+    /**
+     * Determines whether a value is a Lox number
+     * @param value the value to check
+     * @return true if the value is an Integer or Double
+     */
+    public static boolean isNumber(Object value) {
+        return value instanceof Integer || value instanceof Double;
+    }
+
+    /**
+     * Converts a Lox number to a double
+     * @param value an Integer or Double
+     * @return the value as a double
+     */
+    public static double toDouble(Object value) {
+        if (value instanceof Integer) return (int)value;
+        return (double)value;
+    }
+
+    /**
+     * Converts a number from outside the interpreter to a Lox number
+     * @param value any Number
+     * @return an Integer for int-sized integral types, a Double otherwise
+     */
+    public static Object of(Number value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) return box(value.intValue());
+        if (value instanceof Double) return value;
+        return value.doubleValue();
+    }
+
+    /**
+     * Negates a Lox number
+     * @param value an Integer or Double
+     * @return the negation
+     */
+    public static Object negate(Object value) {
+        if (value instanceof Integer) {
+            int operand = (int)value;
+            // -0 is the double -0.0, and -MIN_VALUE does not fit in an int
+            if (operand != 0 && operand != Integer.MIN_VALUE) return box(-operand);
+        }
+        return -toDouble(value);
+    }
+
+    /**
+     * Adds two Lox numbers
+     * @param left an Integer or Double
+     * @param right an Integer or Double
+     * @return the sum
+     */
+    public static Object add(Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            int a = (int)left;
+            int b = (int)right;
+            int sum = a + b;
+            if (((a ^ sum) & (b ^ sum)) >= 0) return box(sum);
+        }
+        return toDouble(left) + toDouble(right);
+    }
+
+    /**
+     * Subtracts one Lox number from another
+     * @param left an Integer or Double
+     * @param right an Integer or Double
+     * @return the difference
+     */
+    public static Object subtract(Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            int a = (int)left;
+            int b = (int)right;
+            int difference = a - b;
+            if (((a ^ b) & (a ^ difference)) >= 0) return box(difference);
+        }
+        return toDouble(left) - toDouble(right);
+    }
+
+    /**
+     * Multiplies two Lox numbers
+     * @param left an Integer or Double
+     * @param right an Integer or Double
+     * @return the product
+     */
+    public static Object multiply(Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            long product = (long)(int)left * (int)right;
+            // A zero product with a negative operand is -0.0 as a double
+            boolean negativeZero = product == 0 && ((int)left < 0 || (int)right < 0);
+            if ((int)product == product && !negativeZero) return box((int)product);
+        }
+        return toDouble(left) * toDouble(right);
+    }
+
+    /**
+     * Divides one Lox number by another. The quotient is always a Double
+     * @param left an Integer or Double
+     * @param right an Integer or Double
+     * @return the quotient
+     */
+    public static Object divide(Object left, Object right) {
+        return toDouble(left) / toDouble(right);
+    }
+
+    /**
+     * Determines whether one Lox number is less than another
+     * @param left an Integer or Double
+     * @param right an Integer or Double
+     * @return whether left is less than right
+     */
+    public static boolean less(Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) return (int)left < (int)right;
+        return toDouble(left) < toDouble(right);
+    }
+
+    /**
+     * Determines whether one Lox number is less than or equal to another
+     * @param left an Integer or Double
+     * @param right an Integer or Double
+     * @return whether left is less than or equal to right
+     */
+    public static boolean lessEqual(Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) return (int)left <= (int)right;
+        return toDouble(left) <= toDouble(right);
+    }
+
+    /**
+     * Determines whether two Lox numbers are equal, with the same rules as Double.equals
+     * @param left an Integer or Double
+     * @param right an Integer or Double
+     * @return whether the numbers are equal
+     */
+    public static boolean equal(Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) return (int)left == (int)right;
+        return Double.doubleToLongBits(toDouble(left)) == Double.doubleToLongBits(toDouble(right));
+    }
+}
@@ -0,0 +1,121 @@
+package com.seanjwalker.lox.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A Lox string built by concatenation, stored as the two strings it joins.
+ * Concatenating is constant time, and the characters are only copied into one String, once,
+ * when the text is first needed for printing, comparing or hashing.
+ * Long chains are flattened without recursion, so any depth is safe
+ */
+public final class Rope implements CharSequence {
+    /**
+     * Concatenations of plain strings up to this length are copied right away,
+     * since a node costs more than copying them
+     */
+    private static final int EAGER_LENGTH = 32;
+
+    private final CharSequence left;
+    private final CharSequence right;
+    private final int length;
+    private String flat;
+
+    /**
+     * Constructor
+     * @param left the first part of the string, a String or Rope
+     * @param right the second part of the string, a String or Rope
+     */
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    /**
+     * Concatenates two Lox strings
+     * @param left the first string, a String or Rope
+     * @param right the second string, a String or Rope
+     * @return the concatenation, a String or Rope
+     */
+    public static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() == 0) return right;
+        if (right.length() == 0) return left;
+        if (left instanceof String && right instanceof String && left.length() + right.length() <= EAGER_LENGTH) {
+            return (String)left + right;
+        }
+        return new Rope(left, right);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /**
+     * Provides the text of the rope, copying it into a String the first time
+     * @return the full text
+     */
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            text = flatten();
+            flat = text;
+        }
+        return text;
+    }
+
+    /**
+     * Two ropes are equal when their text is equal
+     * @param object the object to compare to
+     * @return whether the object is a rope with the same text
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof Rope other)) return false;
+        return length == other.length && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * Copies every part into one array, right to left, with an explicit stack
+     * @return the full text
+     */
+    private String flatten() {
+        char[] chars = new char[length];
+        int end = length;
+
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence part = pending.pop();
+            if (part instanceof Rope rope && rope.flat == null) {
+                // The right part is popped, and so written, first
+                pending.push(rope.left);
+                pending.push(rope.right);
+            } else {
+                String text = part.toString();
+                end -= text.length();
+                text.getChars(0, text.length(), chars, end);
+            }
+        }
+
+        return new String(chars);
+    }
+}
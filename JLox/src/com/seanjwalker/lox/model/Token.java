@@ -7,7 +7,7 @@ public class Token {
     public final TokenType type;
     public final String lexeme;
     public final Object literal;
-    public final int line;
+    private final int line;
 
     /**
      * Constructor
@@ -23,6 +23,14 @@ public class Token {
         this.line = line;
     }
 
+    /**
+     * Gives the line the token is on
+     * @return the line number, starting at 1
+     */
+    public int line() {
+        return line;
+    }
+
     /**
      * Provides a string representation of the token
      * @return the token as a string
@@ -9,7 +9,7 @@ public enum TokenType {
     // Single-character tokens
     LEFT_PAREN("("), RIGHT_PAREN(")"), LEFT_BRACE("{"), RIGHT_BRACE("}"),
     COMMA(","), DOT("."), MINUS("-"), PLUS("+"), SEMICOLON(";"), SLASH("/"),
-    STAR("*"),
+    STAR("*"), QUESTION("?"), COLON(":"),
 
     // One or two character tokens
     BANG("!"), BANG_EQUAL("!="),
@@ -29,27 +29,59 @@ public enum TokenType {
     // End of file
     EOF;
 
-    public String literal;
+    public final String literal;
 
     // Special TokenTypes that are used as keywords
-    public static final Set<TokenType> keywords;
+    public static final Set<TokenType> keywords = Collections.unmodifiableSet(EnumSet.of(
+            AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
+            PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE));
 
     // Keywords that mark the beginning of a statement
-    public static final Set<TokenType> statementStarters;
-
-    public static final Map<String, TokenType> literalMap;
+    public static final Set<TokenType> statementStarters = Collections.unmodifiableSet(EnumSet.of(
+            CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN));
+
+    /**
+     * Lookup from literal text to TokenType.
+     * Kept in a holder class so the table is only built by the first lookup
+     */
+    private static final class LiteralMap {
+        private static final Map<String, TokenType> map = build();
+
+        private static Map<String, TokenType> build() {
+            Map<String, TokenType> map = new HashMap<>();
+            for (TokenType type : values()) {
+                if (type.literal != null) map.put(type.literal, type);
+            }
+            return map;
+        }
+    }
 
-    static {
-        keywords = new HashSet<>();
-        keywords.addAll(List.of(AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-                PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE));
+    /**
+     * Lookup from the lower case text of a keyword to its TokenType
+     */
+    private static final class KeywordMap {
+        private static final Map<String, TokenType> map = build();
 
-        statementStarters = new HashSet<>();
-        statementStarters.addAll(List.of(CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN));
+        private static Map<String, TokenType> build() {
+            Map<String, TokenType> map = new HashMap<>();
+            for (TokenType type : keywords) map.put(type.literal, type);
+            return map;
+        }
+    }
 
-        literalMap = new HashMap<>();
-        for (TokenType type : values()) {
-            literalMap.put(type.literal, type);
+    /**
+     * Lookup from a single character to its single-character TokenType.
+     * Every single-character literal is ASCII, so a flat array indexed by the character is enough
+     */
+    private static final class CharTable {
+        private static final TokenType[] table = build();
+
+        private static TokenType[] build() {
+            TokenType[] table = new TokenType[128];
+            for (TokenType type : values()) {
+                if (type.literal != null && type.literal.length() == 1) table[type.literal.charAt(0)] = type;
+            }
+            return table;
         }
     }
 
@@ -57,9 +89,35 @@ public enum TokenType {
         this.literal = literal;
     }
 
-    TokenType() {}
+    TokenType() {
+        this.literal = null;
+    }
 
+    /**
+     * Finds the TokenType written as the given text
+     * @param literal the text of the token
+     * @return the matching TokenType, or null if no TokenType has that literal
+     */
     public static TokenType of(String literal) {
-        return literalMap.get(literal);
+        return LiteralMap.map.get(literal);
+    }
+
+    /**
+     * Finds the keyword written as the given text, ignoring case, so "nil", "Nil" and "NIL" are all NIL.
+     * Text that is already lower case, as keywords usually are, is looked up without being copied
+     * @param text the text of an identifier
+     * @return the matching keyword TokenType, or null if the text is not a keyword
+     */
+    public static TokenType keyword(String text) {
+        return KeywordMap.map.get(text.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Finds the single-character TokenType written as the given character
+     * @param c the character of the token
+     * @return the matching TokenType, or null if no single-character TokenType is written that way
+     */
+    public static TokenType of(char c) {
+        return c < CharTable.table.length ? CharTable.table[c] : null;
     }
 }
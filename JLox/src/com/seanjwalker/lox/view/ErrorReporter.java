@@ -1,8 +1,11 @@
 package com.seanjwalker.lox.view;
 
+import com.seanjwalker.lox.model.Metrics;
+
 public class ErrorReporter {
     private final OutputPrinter outputPrinter;
     public boolean hadError = false;
+    public boolean hadRuntimeError = false;
 
     /**
      * Constructor
@@ -21,6 +24,27 @@ public class ErrorReporter {
         report(line, "", message);
     }
 
+    /**
+     * Handles an error raised while evaluating
+     * @param line the line where the error occurred
+     * @param message the error message
+     */
+    public void runtimeError(int line, String message) {
+        runtimeError(line, message, Metrics.ErrorKind.RUNTIME);
+    }
+
+    /**
+     * Handles an error raised while evaluating, counting it under a kind of its own
+     * @param line the line where the error occurred
+     * @param message the error message
+     * @param kind the kind of error it is counted as
+     */
+    public void runtimeError(int line, String message, Metrics.ErrorKind kind) {
+        hadRuntimeError = true;
+        Metrics.errors(kind).increment();
+        this.outputPrinter.printError(message + "\n[line " + line + "]");
+    }
+
     /**
      * Reports an error to the user
      * @param line the line where the error occurred
@@ -29,6 +53,8 @@ public class ErrorReporter {
      */
     public void report(int line, String where,
                        String message) {
+        hadError = true;
+        Metrics.errors(Metrics.ErrorKind.SYNTAX).increment();
         this.outputPrinter.printError("[line " + line + "] Error" + where + ": " + message +"\n");
     }
 }
@@ -0,0 +1,82 @@
+package com.seanjwalker.lox.view;
+
+import com.seanjwalker.lox.model.Metrics;
+
+import java.io.IOException;
+
+/**
+ * Writes the metrics registry in the Prometheus text exposition format
+ */
+public class MetricsFormatter {
+    /**
+     * The content type of the format, for HTTP responses
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Writes every metric
+     * @param output where the metrics are written
+     * @throws IOException if the output cannot be written to
+     */
+    public void write(Appendable output) throws IOException {
+        String family = null;
+        for (Metrics.Metric metric : Metrics.all()) {
+            if (!metric.name.equals(family)) {
+                family = metric.name;
+                output.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+                output.append("# TYPE ").append(metric.name).append(' ')
+                        .append(metric instanceof Metrics.Histogram ? "histogram" : "counter").append('\n');
+            }
+
+            if (metric instanceof Metrics.Counter counter) {
+                sample(output, metric.name, metric.labels, Long.toString(counter.value()));
+            } else if (metric instanceof Metrics.Histogram histogram) {
+                writeHistogram(output, histogram);
+            }
+        }
+    }
+
+    /**
+     * Writes the cumulative buckets, sum and count of a histogram, converting nanoseconds to seconds
+     * @param output where the histogram is written
+     * @param histogram the histogram
+     * @throws IOException if the output cannot be written to
+     */
+    private void writeHistogram(Appendable output, Metrics.Histogram histogram) throws IOException {
+        long[] bounds = histogram.bounds();
+        long[] counts = histogram.counts();
+        String prefix = histogram.labels.isEmpty() ? "" : histogram.labels + ",";
+
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            String bound = i < bounds.length ? seconds(bounds[i]) : "+Inf";
+            sample(output, histogram.name + "_bucket", prefix + "le=\"" + bound + "\"", Long.toString(cumulative));
+        }
+        sample(output, histogram.name + "_sum", histogram.labels, seconds(histogram.sum()));
+        sample(output, histogram.name + "_count", histogram.labels, Long.toString(cumulative));
+    }
+
+    /**
+     * Writes one sample line
+     * @param output where the line is written
+     * @param name the name of the sample
+     * @param labels the labels of the sample, possibly empty
+     * @param value the value of the sample
+     * @throws IOException if the output cannot be written to
+     */
+    private void sample(Appendable output, String name, String labels, String value) throws IOException {
+        output.append(name);
+        if (!labels.isEmpty()) output.append('{').append(labels).append('}');
+        output.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Formats a duration in seconds, the unit the exposition format expects
+     * @param nanos the duration in nanoseconds
+     * @return the duration in seconds
+     */
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
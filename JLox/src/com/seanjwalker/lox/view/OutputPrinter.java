@@ -1,11 +1,13 @@
 package com.seanjwalker.lox.view;
 
+import java.io.Flushable;
 import java.io.IOException;
 
 /**
- * Controller for handling output
+ * Controller for handling output.
+ * It is also an Appendable over standard output, so writers can stream into it piece by piece
  */
-public class OutputPrinter {
+public class OutputPrinter implements Appendable {
     private final Appendable output;
     private final Appendable errorOutput;
 
@@ -54,4 +56,63 @@ public class OutputPrinter {
             throw new RuntimeException("Error output cannot be written to.", e);
         }
     }
+
+    /**
+     * Writes out anything output is holding in a buffer
+     */
+    public void flush() {
+        if (!(output instanceof Flushable flushable)) return;
+        try {
+            flushable.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Standard output cannot be written to.", e);
+        }
+    }
+
+    /**
+     * Appends text to output
+     * @param text the text to append
+     * @return this printer
+     */
+    @Override
+    public OutputPrinter append(CharSequence text) {
+        try {
+            output.append(text);
+        } catch (IOException e) {
+            throw new RuntimeException("Standard output cannot be written to.", e);
+        }
+        return this;
+    }
+
+    /**
+     * Appends part of some text to output
+     * @param text the text to append part of
+     * @param start the index of the first character appended
+     * @param end the index after the last character appended
+     * @return this printer
+     */
+    @Override
+    public OutputPrinter append(CharSequence text, int start, int end) {
+        try {
+            output.append(text, start, end);
+        } catch (IOException e) {
+            throw new RuntimeException("Standard output cannot be written to.", e);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a character to output
+     * @param c the character to append
+     * @return this printer
+     */
+    @Override
+    public OutputPrinter append(char c) {
+        try {
+            output.append(c);
+        } catch (IOException e) {
+            throw new RuntimeException("Standard output cannot be written to.", e);
+        }
+        return this;
+    }
 }
@@ -25,10 +25,14 @@ public class GenerateAst {
         String outputDirectory = args[0];
 
         defineAst(outputDirectory, "Expression", Arrays.asList(
-                "Binary   : Expression left, Token operator, Expression right",
-                "Grouping : Expression expression",
-                "Literal  : Object value",
-                "Unary    : Token operator, Expression right"
+                "Binary      : Expression left, Token operator, Expression right",
+                "Conditional : Expression condition, Token operator, Expression thenBranch, Expression elseBranch",
+                "Grouping    : Expression expression",
+                "Literal     : Object value",
+                "Logical     : Expression left, Token operator, Expression right",
+                "Sequence    : Expression[] expressions",
+                "Unary       : Token operator, Expression right",
+                "Variable    : Token name"
         ));
     }
 
@@ -0,0 +1,293 @@
+package com.seanjwalker.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic Lox script for measuring the interpreter.
+ * The script is a balanced tree of equality tests between independent terms, so it evaluates without errors
+ * whatever the mix, and the same options and seed always produce the same script
+ */
+public class GenerateWorkload {
+    private static final String USAGE = """
+            Usage: generate_workload <output file> [options]
+              --size <characters>        approximate length of the script (default 65536)
+              --depth <n>                deepest nesting of a term (default 6)
+              --seed <n>                 seed of the generator (default 0)
+              --operators <a,c,e,u>      weights of arithmetic, comparison, equality and unary operators (default 4,2,1,1)
+              --literals <n,s,b,nil>     weights of number, string, boolean and nil literals (default 6,2,1,1)
+              --comments <fraction>      chance of a comment between two terms (default 0.05)""";
+
+    private enum Type { NUMBER, STRING, BOOLEAN, ANY }
+
+    private static final String[] ARITHMETIC = {"+", "-", "*", "/"};
+    private static final String[] COMPARISON = {"<", "<=", ">", ">="};
+    private static final String[] EQUALITY = {"==", "!="};
+    private static final String[] WORDS = {"lox", "jit", "token", "tree", "visitor", "scanner", "parser", "value"};
+
+    private final Random random;
+    private final int depth;
+    private final int[] operatorWeights;
+    private final int[] literalWeights;
+    private final double commentDensity;
+
+    /**
+     * Entrypoint to generate a workload
+     * @param args the output file followed by options
+     * @throws IOException if there is an error writing to output file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length % 2 != 1) usage();
+
+        int size = 65536;
+        int depth = 6;
+        long seed = 0;
+        int[] operatorWeights = {4, 2, 1, 1};
+        int[] literalWeights = {6, 2, 1, 1};
+        double commentDensity = 0.05;
+
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--size" -> size = Integer.parseInt(value);
+                    case "--depth" -> depth = Integer.parseInt(value);
+                    case "--seed" -> seed = Long.parseLong(value);
+                    case "--operators" -> operatorWeights = weights(value, 4);
+                    case "--literals" -> literalWeights = weights(value, 4);
+                    case "--comments" -> commentDensity = Double.parseDouble(value);
+                    default -> usage();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+        }
+
+        GenerateWorkload generator = new GenerateWorkload(seed, depth, operatorWeights, literalWeights, commentDensity);
+        try (PrintWriter writer = new PrintWriter(new File(args[0]), StandardCharsets.UTF_8)) {
+            generator.write(writer, size);
+        }
+    }
+
+    /**
+     * Constructor
+     * @param seed the seed of the generator
+     * @param depth the deepest nesting of a term
+     * @param operatorWeights the weights of arithmetic, comparison, equality and unary operators
+     * @param literalWeights the weights of number, string, boolean and nil literals
+     * @param commentDensity the chance of a comment between two terms
+     */
+    public GenerateWorkload(long seed, int depth, int[] operatorWeights, int[] literalWeights, double commentDensity) {
+        this.random = new Random(seed);
+        this.depth = depth;
+        this.operatorWeights = operatorWeights;
+        this.literalWeights = literalWeights;
+        this.commentDensity = commentDensity;
+    }
+
+    /**
+     * Writes a script of about the given length.
+     * Terms are generated until the length is reached and then joined pairwise,
+     * so the tree is only logarithmically deep however long the script is
+     * @param writer where the script is written
+     * @param size the approximate number of characters to write
+     */
+    public void write(PrintWriter writer, int size) {
+        List<String> terms = new ArrayList<>();
+        int length = 0;
+        do {
+            StringBuilder term = new StringBuilder();
+            if (random.nextDouble() < commentDensity) comment(term);
+            term(term, Type.ANY, depth);
+            terms.add(term.toString());
+            length += term.length() + 8;
+        } while (length < size);
+
+        join(writer, terms, 0, terms.size());
+        writer.println();
+    }
+
+    /**
+     * Writes the terms from one index to another, joined by equality operators
+     * @param writer where the terms are written
+     * @param terms the generated terms
+     * @param from the first term written
+     * @param to the index after the last term written
+     */
+    private void join(PrintWriter writer, List<String> terms, int from, int to) {
+        if (to - from == 1) {
+            writer.print(terms.get(from));
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        writer.print('(');
+        join(writer, terms, from, middle);
+        writer.print('\n');
+        writer.print(EQUALITY[random.nextInt(EQUALITY.length)]);
+        writer.print(' ');
+        join(writer, terms, middle, to);
+        writer.print(')');
+    }
+
+    /**
+     * Generates an expression of a type
+     * @param out where the expression is written
+     * @param type the type the expression must evaluate to
+     * @param depth how much deeper the expression may nest
+     */
+    private void term(StringBuilder out, Type type, int depth) {
+        if (depth == 0) {
+            literal(out, type);
+            return;
+        }
+
+        switch (type) {
+            case NUMBER -> {
+                int choice = pick(new int[] {operatorWeights[0], operatorWeights[3], literalWeights[0]});
+                if (choice == 0) binary(out, Type.NUMBER, ARITHMETIC, depth);
+                else if (choice == 1) unary(out, "-", Type.NUMBER, depth);
+                else literal(out, Type.NUMBER);
+            }
+            case STRING -> {
+                if (random.nextInt(2) == 0) binary(out, Type.STRING, new String[] {"+"}, depth);
+                else literal(out, Type.STRING);
+            }
+            case BOOLEAN -> {
+                int choice = pick(new int[] {operatorWeights[1], operatorWeights[2], operatorWeights[3], literalWeights[2]});
+                if (choice == 0) binary(out, Type.NUMBER, COMPARISON, depth);
+                else if (choice == 1) binary(out, Type.ANY, EQUALITY, depth);
+                else if (choice == 2) unary(out, "!", Type.ANY, depth);
+                else literal(out, Type.BOOLEAN);
+            }
+            case ANY -> term(out, literalType(), depth);
+        }
+    }
+
+    /**
+     * Generates a binary expression in parentheses
+     * @param out where the expression is written
+     * @param operandType the type of both operands
+     * @param operators the operators to choose from
+     * @param depth how much deeper the expression may nest
+     */
+    private void binary(StringBuilder out, Type operandType, String[] operators, int depth) {
+        out.append('(');
+        term(out, operandType, depth - 1);
+        out.append(' ').append(operators[random.nextInt(operators.length)]).append(' ');
+        term(out, operandType, depth - 1);
+        out.append(')');
+    }
+
+    /**
+     * Generates a unary expression
+     * @param out where the expression is written
+     * @param operator the operator
+     * @param operandType the type of the operand
+     * @param depth how much deeper the expression may nest
+     */
+    private void unary(StringBuilder out, String operator, Type operandType, int depth) {
+        out.append(operator);
+        term(out, operandType, depth - 1);
+    }
+
+    /**
+     * Generates a literal of a type
+     * @param out where the literal is written
+     * @param type the type of the literal; ANY picks one by the literal weights
+     */
+    private void literal(StringBuilder out, Type type) {
+        if (type == Type.ANY) {
+            int choice = pick(literalWeights);
+            if (choice == 3) {
+                out.append("nil");
+                return;
+            }
+            type = choice == 0 ? Type.NUMBER : choice == 1 ? Type.STRING : Type.BOOLEAN;
+        }
+
+        switch (type) {
+            case NUMBER -> {
+                if (random.nextInt(4) == 0) out.append(random.nextInt(1000)).append('.').append(random.nextInt(100));
+                else out.append(random.nextInt(10000));
+            }
+            case STRING -> out.append('"').append(WORDS[random.nextInt(WORDS.length)]).append('"');
+            case BOOLEAN -> out.append(random.nextBoolean());
+        }
+    }
+
+    /**
+     * Writes a line or block comment
+     * @param out where the comment is written
+     */
+    private void comment(StringBuilder out) {
+        if (random.nextBoolean()) {
+            out.append("// ").append(WORDS[random.nextInt(WORDS.length)]).append('\n');
+        } else {
+            out.append("/* ").append(WORDS[random.nextInt(WORDS.length)])
+                    .append('\n').append(WORDS[random.nextInt(WORDS.length)]).append(" */ ");
+        }
+    }
+
+    /**
+     * Picks the type of a term by the literal weights, treating nil as a boolean context
+     * @return NUMBER, STRING or BOOLEAN
+     */
+    private Type literalType() {
+        return switch (pick(literalWeights)) {
+            case 0 -> Type.NUMBER;
+            case 1 -> Type.STRING;
+            default -> Type.BOOLEAN;
+        };
+    }
+
+    /**
+     * Picks an index with chance proportional to its weight
+     * @param weights the weight of each index
+     * @return the chosen index
+     */
+    private int pick(int[] weights) {
+        int total = 0;
+        for (int weight : weights) total += weight;
+        if (total == 0) return weights.length - 1;
+
+        int roll = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            roll -= weights[i];
+            if (roll < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * Parses a list of weights
+     * @param value the weights, separated by commas
+     * @param count the number of weights expected
+     * @return the weights
+     */
+    private static int[] weights(String value, int count) {
+        String[] parts = value.split(",");
+        if (parts.length != count) throw new IllegalArgumentException("Expected " + count + " weights: " + value);
+
+        int[] weights = new int[count];
+        for (int i = 0; i < count; i++) {
+            weights[i] = Integer.parseInt(parts[i].trim());
+            if (weights[i] < 0) throw new IllegalArgumentException("Weights must not be negative: " + value);
+        }
+        return weights;
+    }
+
+    /**
+     * Prints how to invoke the generator and exits
+     */
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(64);
+    }
+}